@@ -12,7 +12,13 @@ import lombok.Getter;
 @Getter
 public enum CompressTypeEnum {
 
-    GZIP((byte) 0x01, "gzip");
+    NONE((byte) 0x00, "none"),
+    GZIP((byte) 0x01, "gzip"),
+    LZ4((byte) 0x02, "lz4"),
+    LZ4HC((byte) 0x03, "lz4hc"),
+    SNAPPY((byte) 0x04, "snappy"),
+    ZSTD((byte) 0x05, "zstd"),
+    ZSTD_DICT((byte) 0x06, "zstd-dict");
 
     private final byte code;    //编码
     private final String name;  //名字
@@ -31,4 +37,18 @@ public enum CompressTypeEnum {
         return null;
     }
 
+    /**
+     * 根据名字获取压缩类型
+     * @param name 名字
+     * @return github.cloudtour.enums.CompressTypeEnum 未知名字时返回null
+     **/
+    public static CompressTypeEnum getByName(String name) {
+        for (CompressTypeEnum c : CompressTypeEnum.values()) {
+            if (c.name.equalsIgnoreCase(name)) {
+                return c;
+            }
+        }
+        return null;
+    }
+
 }
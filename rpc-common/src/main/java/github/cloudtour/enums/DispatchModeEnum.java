@@ -0,0 +1,33 @@
+package github.cloudtour.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 服务端请求分发模式枚举类--线程池模式在固定大小的执行器组上处理请求，虚拟线程模式为每个请求启动一个虚拟线程(需要JDK 21)
+ * @author cloudtour
+ * @version 1.0
+ */
+@AllArgsConstructor
+@Getter
+public enum DispatchModeEnum {
+
+    EXECUTOR_GROUP("executor"),
+    VIRTUAL_THREAD("virtual");
+
+    private final String name;
+
+    /**
+     * 根据名字获取分发模式，未知名字时使用线程池模式
+     * @param name 名字
+     * @return github.cloudtour.enums.DispatchModeEnum
+     **/
+    public static DispatchModeEnum getByName(String name) {
+        for (DispatchModeEnum c : DispatchModeEnum.values()) {
+            if (c.name.equalsIgnoreCase(name)) {
+                return c;
+            }
+        }
+        return EXECUTOR_GROUP;
+    }
+}
@@ -0,0 +1,33 @@
+package github.cloudtour.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 通道刷新模式枚举类--延迟优先时每条消息立即刷新，吞吐优先时合并多次刷新为一次写入
+ * @author cloudtour
+ * @version 1.0
+ */
+@AllArgsConstructor
+@Getter
+public enum FlushModeEnum {
+
+    LATENCY("latency"),
+    THROUGHPUT("throughput");
+
+    private final String name;
+
+    /**
+     * 根据名字获取刷新模式，未知名字时使用延迟优先
+     * @param name 名字
+     * @return github.cloudtour.enums.FlushModeEnum
+     **/
+    public static FlushModeEnum getByName(String name) {
+        for (FlushModeEnum c : FlushModeEnum.values()) {
+            if (c.name.equalsIgnoreCase(name)) {
+                return c;
+            }
+        }
+        return LATENCY;
+    }
+}
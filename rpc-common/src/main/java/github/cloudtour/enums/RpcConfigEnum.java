@@ -13,7 +13,31 @@ import lombok.Getter;
 public enum RpcConfigEnum {
 
     RPC_CONFIG_PATH("rpc.properties"),
-    ZK_ADDRESS("rpc.zookeeper.address");
+    ZK_ADDRESS("rpc.zookeeper.address"),
+    CLIENT_TIMEOUT("rpc.client.timeout"),
+    TRANSPORT_FLUSH_MODE("rpc.transport.flush.mode"),
+    TRANSPORT_FLUSH_MAX_PENDING("rpc.transport.flush.maxPending"),
+    CLIENT_POOL_MIN_CONNECTIONS("rpc.client.pool.minConnections"),
+    CLIENT_POOL_MAX_CONNECTIONS("rpc.client.pool.maxConnections"),
+    CLIENT_POOL_GROW_THRESHOLD("rpc.client.pool.growThreshold"),
+    CLIENT_CONNECT_MAX_RETRIES("rpc.client.connect.maxRetries"),
+    CLIENT_CONNECT_BACKOFF_BASE("rpc.client.connect.backoffBase"),
+    CLIENT_CONNECT_BACKOFF_MAX("rpc.client.connect.backoffMax"),
+    TRANSPORT_NATIVE_ENABLED("rpc.transport.native.enabled"),
+    SERVER_REUSE_PORT_LISTENERS("rpc.server.reusePort.listeners"),
+    SERVER_DISPATCH_MODE("rpc.server.dispatch.mode"),
+    SERVER_MAX_CONCURRENCY("rpc.server.maxConcurrency"),
+    CODEC_SERIALIZER_PREFERENCE("rpc.codec.serializer.preference"),
+    CODEC_COMPRESS_PREFERENCE("rpc.codec.compress.preference"),
+    COMPRESS_MIN_SIZE("rpc.compress.minSize"),
+    COMPRESS_MAX_RATIO("rpc.compress.maxRatio"),
+    COMPRESS_ZSTD_LEVEL("rpc.compress.zstd.level"),
+    COMPRESS_DICT_SAMPLES("rpc.compress.dict.samples"),
+    COMPRESS_DICT_SIZE("rpc.compress.dict.size"),
+    COMPRESS_DICT_RETRAIN_INTERVAL("rpc.compress.dict.retrainInterval"),
+    COMPRESS_DICT_MIN_SIZE("rpc.compress.dict.minSize"),
+    SERIALIZER_KRYO_POOL_SIZE("rpc.serializer.kryo.poolSize"),
+    SERIALIZER_KRYO_REGISTRATION_REQUIRED("rpc.serializer.kryo.registrationRequired");
 
     private final String propertyValue;
 }
@@ -18,7 +18,12 @@ public enum RpcErrorMessageEnum {
     SERVICE_INVOCATION_FAILURE("服务调用失败"),
     SERVICE_CAN_NOT_BE_FOUND("没有找到指定的服务"),
     SERVICE_NOT_IMPLEMENT_ANY_INTERFACE("注册的服务没有实现任何接口"),
-    REQUEST_NOT_MATCH_RESPONSE("返回结果错误！请求和返回的相应不匹配");
+    REQUEST_NOT_MATCH_RESPONSE("返回结果错误！请求和返回的相应不匹配"),
+    TOO_MANY_PENDING_REQUESTS("连接上未完成的请求过多"),
+    REQUEST_TIMEOUT("请求超时"),
+    CHANNEL_CLOSED("连接已关闭，请求未完成"),
+    UNSUPPORTED_COMPRESS("不支持的压缩方式"),
+    UNSUPPORTED_SERIALIZER("不支持的序列化方式");
 
     private final String message;
 }
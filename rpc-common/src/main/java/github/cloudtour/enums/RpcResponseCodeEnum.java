@@ -15,7 +15,8 @@ import lombok.ToString;
 public enum RpcResponseCodeEnum {
 
     SUCCESS(200, "远程调用成功"),
-    FAIL(500, "远程调用失败");
+    FAIL(500, "远程调用失败"),
+    OVERLOADED(503, "服务端超出并发限制，请求被拒绝");
 
     private final int code;
     private final String message;
@@ -14,7 +14,8 @@ public enum  SerializationTypeEnum {
 
     KYRO((byte) 0x01, "kyro"),
     PROTOSTUFF((byte) 0x02, "protostuff"),
-    HESSIAN((byte) 0X03, "hessian");
+    HESSIAN((byte) 0X03, "hessian"),
+    HESSIAN2((byte) 0x04, "hessian2");
 
     private final byte code;
     private final String name;
@@ -32,4 +33,18 @@ public enum  SerializationTypeEnum {
         }
         return null;
     }
+
+    /**
+     * 根据名字获取序列化类型
+     * @param name 名字
+     * @return github.cloudtour.enums.SerializationTypeEnum 未知名字时返回null
+     **/
+    public static SerializationTypeEnum getByName(String name) {
+        for (SerializationTypeEnum c : SerializationTypeEnum.values()) {
+            if (c.name.equalsIgnoreCase(name)) {
+                return c;
+            }
+        }
+        return null;
+    }
 }
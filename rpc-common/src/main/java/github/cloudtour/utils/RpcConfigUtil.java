@@ -0,0 +1,68 @@
+package github.cloudtour.utils;
+
+import github.cloudtour.enums.RpcConfigEnum;
+
+import java.util.Properties;
+
+/**
+ * rpc配置工具类--读取rpc.properties中的配置项，配置文件只加载一次
+ * @author cloudtour
+ * @version 1.0
+ */
+public final class RpcConfigUtil {
+
+    private RpcConfigUtil() {
+    }
+
+    /**
+     * 获取字符串配置
+     * @param rpcConfigEnum 配置项
+     * @param defaultValue  未配置时的默认值
+     * @return java.lang.String
+     **/
+    public static String getString(RpcConfigEnum rpcConfigEnum, String defaultValue) {
+        Properties properties = PropertiesHolder.PROPERTIES;
+        String value = properties == null ? null : properties.getProperty(rpcConfigEnum.getPropertyValue());
+        return StringUtil.isBlank(value) ? defaultValue : value.trim();
+    }
+
+    /**
+     * 获取整数配置
+     * @param rpcConfigEnum 配置项
+     * @param defaultValue  未配置时的默认值
+     * @return int
+     **/
+    public static int getInt(RpcConfigEnum rpcConfigEnum, int defaultValue) {
+        String value = getString(rpcConfigEnum, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * 获取长整数配置
+     * @param rpcConfigEnum 配置项
+     * @param defaultValue  未配置时的默认值
+     * @return long
+     **/
+    public static long getLong(RpcConfigEnum rpcConfigEnum, long defaultValue) {
+        String value = getString(rpcConfigEnum, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    /**
+     * 获取布尔配置
+     * @param rpcConfigEnum 配置项
+     * @param defaultValue  未配置时的默认值
+     * @return boolean
+     **/
+    public static boolean getBoolean(RpcConfigEnum rpcConfigEnum, boolean defaultValue) {
+        String value = getString(rpcConfigEnum, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * 延迟加载配置文件
+     **/
+    private static class PropertiesHolder {
+        private static final Properties PROPERTIES = PropertiesFileUtil.readPropertiesFile(RpcConfigEnum.RPC_CONFIG_PATH.getPropertyValue());
+    }
+}
@@ -24,4 +24,19 @@ public @interface RpcReference {
      */
     String group() default "";
 
+    /**
+     * 调用超时时间(毫秒)，默认值0表示使用全局配置rpc.client.timeout
+     */
+    long timeout() default 0;
+
+    /**
+     * 序列化方式(hessian2、hessian、kyro、protostuff)，默认值为空字符串表示使用服务端为该服务指定的或握手时协商的序列化方式
+     */
+    String serializer() default "";
+
+    /**
+     * 压缩方式(gzip、lz4、lz4hc、snappy、zstd、zstd-dict、none)，默认值为空字符串表示使用服务端为该服务指定的或握手时协商的压缩方式
+     */
+    String compress() default "";
+
 }
\ No newline at end of file
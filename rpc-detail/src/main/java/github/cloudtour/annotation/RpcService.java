@@ -23,4 +23,21 @@ public @interface RpcService {
      */
     String group() default "";
 
+    /**
+     * 服务的最大并发数，默认值为0表示不限制，仅在虚拟线程分发模式下生效
+     */
+    int maxConcurrency() default 0;
+
+    /**
+     * 序列化方式(hessian2、hessian、kyro、protostuff)，在握手时告知客户端，客户端未在@RpcReference中指定时使用，
+     * 默认值为空字符串表示使用握手时协商的序列化方式
+     */
+    String serializer() default "";
+
+    /**
+     * 压缩方式(gzip、lz4、lz4hc、snappy、zstd、zstd-dict、none)，在握手时告知客户端，客户端未在@RpcReference中指定时使用，
+     * 默认值为空字符串表示使用握手时协商的压缩方式
+     */
+    String compress() default "";
+
 }
@@ -0,0 +1,20 @@
+package github.cloudtour.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 方法级调用超时注释，标记在服务接口的方法上，优先级高于@RpcReference中的timeout
+ * @author cloudtour
+ * @version 1.0
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD})
+public @interface RpcTimeout {
+
+    /**
+     * 调用超时时间(毫秒)
+     */
+    long value();
+
+}
@@ -0,0 +1,55 @@
+package github.cloudtour.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 基于流实现的压缩抽象类--子类只需提供压缩流和解压流，字节数组方式的压缩与解压由流实现
+ * @author cloudtour
+ * @version 1.0
+ */
+public abstract class AbstractStreamCompress implements Compress {
+
+    private static final int BUFFER_SIZE = 1024 * 4;
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("要压缩的字节数组为null");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream compressed = compressStream(out)) {
+            compressed.write(bytes);
+        } catch (IOException e) {
+            throw new RuntimeException(getClass().getSimpleName() + "压缩错误", e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("要解压的字节数组为null");
+        }
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream();
+             InputStream in = decompressStream(new ByteArrayInputStream(bytes))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(getClass().getSimpleName() + "解压错误", e);
+        }
+    }
+
+    @Override
+    public abstract OutputStream compressStream(OutputStream out) throws IOException;
+
+    @Override
+    public abstract InputStream decompressStream(InputStream in) throws IOException;
+}
@@ -1,6 +1,15 @@
 package github.cloudtour.compress;
 
 import github.cloudtour.extension.SPI;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * 压缩接口
@@ -24,4 +33,62 @@ public interface Compress {
      * @return byte[]   解压后的字节数组
      **/
     byte[] decompress(byte[] bytes);
+
+    /**
+     * 包装输出流，写入返回流的数据被压缩后写入out。调用方必须关闭返回的流以完成压缩(同时会关闭out)
+     * 默认实现先缓存全部数据，关闭时再调用字节数组方式压缩，具体压缩方式应重写该方法
+     * @param out   压缩数据的目标输出流
+     * @return java.io.OutputStream
+     **/
+    default OutputStream compressStream(OutputStream out) throws IOException {
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                out.write(compress(toByteArray()));
+                out.close();
+            }
+        };
+    }
+
+    /**
+     * 包装输入流，从返回流中读取到的是解压后的数据
+     * 默认实现先读出全部数据，再调用字节数组方式解压，具体压缩方式应重写该方法
+     * @param in    压缩数据的输入流
+     * @return java.io.InputStream
+     **/
+    default InputStream decompressStream(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > -1) {
+            out.write(buffer, 0, n);
+        }
+        return new ByteArrayInputStream(decompress(out.toByteArray()));
+    }
+
+    /**
+     * 将src中的可读数据压缩后写入dst，src的读索引移动到末尾
+     * 默认实现使用压缩流，具体压缩方式可以重写该方法直接读写缓冲区
+     * @param src   要压缩的数据
+     * @param dst   压缩数据的目标缓冲区
+     **/
+    default void compress(ByteBuf src, ByteBuf dst) throws IOException {
+        try (OutputStream out = compressStream(new ByteBufOutputStream(dst))) {
+            src.readBytes(out, src.readableBytes());
+        }
+    }
+
+    /**
+     * 将src中的压缩数据解压后写入dst
+     * 默认实现使用解压流，具体压缩方式可以重写该方法直接读写缓冲区
+     * @param src   压缩数据
+     * @param dst   解压数据的目标缓冲区
+     **/
+    default void decompress(ByteBuf src, ByteBuf dst) throws IOException {
+        try (InputStream in = decompressStream(new ByteBufInputStream(src))) {
+            while (dst.writeBytes(in, 4096) != -1) {
+                //继续读取直到流结束
+            }
+        }
+    }
 }
@@ -0,0 +1,119 @@
+package github.cloudtour.compress;
+
+import github.cloudtour.enums.RpcConfigEnum;
+import github.cloudtour.transmission.constants.RpcConstants;
+import github.cloudtour.transmission.dto.RpcMessage;
+import github.cloudtour.utils.RpcConfigUtil;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 压缩策略--决定一条消息的正文是否需要压缩
+ * <p>
+ * 小于阈值的正文不压缩，使用字典压缩时阈值更低；按方法统计压缩后与压缩前大小之比的滑动平均值，比值高于上限的方法不再压缩，
+ * 之后每隔一定条数仍会试探性地压缩一次，负载变得可压缩时自动恢复
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+public class CompressionPolicy {
+
+    /**
+     * 正文小于该字节数时不压缩，通过rpc.compress.minSize配置
+     */
+    private static final int MIN_SIZE = RpcConfigUtil.getInt(RpcConfigEnum.COMPRESS_MIN_SIZE, 512);
+    /**
+     * 使用字典压缩时的正文大小阈值，字典使小正文也能获得较好的压缩率，通过rpc.compress.dict.minSize配置
+     */
+    private static final int DICT_MIN_SIZE = RpcConfigUtil.getInt(RpcConfigEnum.COMPRESS_DICT_MIN_SIZE, 64);
+    /**
+     * 压缩后与压缩前大小之比的上限，超过时认为该方法的负载不可压缩，通过rpc.compress.maxRatio配置(百分比)
+     */
+    private static final double MAX_RATIO = RpcConfigUtil.getInt(RpcConfigEnum.COMPRESS_MAX_RATIO, 90) / 100.0;
+    /**
+     * 至少统计多少条消息后才会停止压缩
+     */
+    private static final int MIN_SAMPLES = 16;
+    /**
+     * 停止压缩后，每隔多少条消息试探性地压缩一次
+     */
+    private static final int PROBE_INTERVAL = 256;
+    /**
+     * 滑动平均中新样本的权重
+     */
+    private static final double ALPHA = 0.2;
+
+    /**
+     * 请求和响应的负载不同，分别统计；key: 方法标识
+     */
+    private final Map<String, MethodStats> requestStats = new ConcurrentHashMap<>();
+    private final Map<String, MethodStats> responseStats = new ConcurrentHashMap<>();
+
+    /**
+     * 判断消息正文是否需要压缩
+     * @param rpcMessage 消息
+     * @param size       序列化后的正文大小
+     * @param dictionary 是否使用字典压缩
+     * @return boolean
+     **/
+    public boolean shouldCompress(RpcMessage rpcMessage, int size, boolean dictionary) {
+        if (size < (dictionary ? DICT_MIN_SIZE : MIN_SIZE)) {
+            return false;
+        }
+        MethodStats stats = stats(rpcMessage);
+        return stats == null || stats.shouldCompress();
+    }
+
+    /**
+     * 记录一次压缩的效果
+     * @param rpcMessage     消息
+     * @param size           压缩前的正文大小
+     * @param compressedSize 压缩后的正文大小
+     **/
+    public void record(RpcMessage rpcMessage, int size, int compressedSize) {
+        MethodStats stats = stats(rpcMessage);
+        if (stats != null) {
+            stats.record((double) compressedSize / size);
+        }
+    }
+
+    /**
+     * 获取消息所属方法的统计信息，没有方法标识的消息不参与统计
+     **/
+    private MethodStats stats(RpcMessage rpcMessage) {
+        String methodKey = rpcMessage.getMethodKey();
+        if (methodKey == null) {
+            return null;
+        }
+        Map<String, MethodStats> statsMap = rpcMessage.getMessageType() == RpcConstants.RESPONSE_TYPE ? responseStats : requestStats;
+        MethodStats stats = statsMap.get(methodKey);
+        if (stats == null) {
+            stats = statsMap.computeIfAbsent(methodKey, k -> new MethodStats());
+        }
+        return stats;
+    }
+
+    /**
+     * 单个方法的压缩统计，字段之间的竞争只会使统计略有偏差，不影响正确性
+     **/
+    private static final class MethodStats {
+        private final AtomicLong skipped = new AtomicLong();
+        private volatile double ratio;
+        private volatile int samples;
+        private volatile boolean disabled;
+
+        private boolean shouldCompress() {
+            return !disabled || skipped.incrementAndGet() % PROBE_INTERVAL == 0;
+        }
+
+        private void record(double sample) {
+            ratio = samples == 0 ? sample : ratio * (1 - ALPHA) + sample * ALPHA;
+            if (samples < MIN_SAMPLES) {
+                samples++;
+            }
+            disabled = samples >= MIN_SAMPLES && ratio > MAX_RATIO;
+        }
+    }
+}
@@ -1,15 +1,28 @@
 package github.cloudtour.compress.gzip;
 
 import github.cloudtour.compress.Compress;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.FastThreadLocal;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 /**
  * Gzip实现压缩
+ * <p>
+ * 缓冲区方式的压缩和解压复用每个线程的Deflater、Inflater和CRC32，不再为每条消息创建新的zlib本地状态，
+ * 直接从缓冲区读取和写入；输出仍为标准gzip格式，与使用GZIPOutputStream的节点互通
+ *
  * @author cloudtour
  * @version 1.0
  */
@@ -17,17 +30,45 @@ public class GzipCompress implements Compress {
 
     private static final int BUFFER_SIZE = 1024 * 4;
 
+    /**
+     * gzip头部的魔数与压缩方法
+     */
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int CM_DEFLATE = 8;
+    /**
+     * gzip头部标志位
+     */
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    /**
+     * 解压时按尾部记录的原始大小预分配目标缓冲区，该值可能不可信，因此限制上限
+     */
+    private static final int MAX_SIZE_HINT = 16 * 1024 * 1024;
+
+    private static final FastThreadLocal<GzipContext> CONTEXT = new FastThreadLocal<GzipContext>() {
+        @Override
+        protected GzipContext initialValue() {
+            return new GzipContext();
+        }
+
+        @Override
+        protected void onRemoval(GzipContext context) {
+            context.deflater.end();
+            context.inflater.end();
+        }
+    };
+
     @Override
     public byte[] compress(byte[] bytes) {
         if (bytes == null) {
             throw new NullPointerException("要压缩的字节数组为null");
         }
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream();
-             GZIPOutputStream gzip = new GZIPOutputStream(out)) {
-            gzip.write(bytes);
-            gzip.flush();
-            gzip.finish();
-            return out.toByteArray();
+        ByteBuf dst = Unpooled.buffer(bytes.length / 2 + 32);
+        try {
+            compress(Unpooled.wrappedBuffer(bytes), dst);
+            return toByteArray(dst);
         } catch (IOException e) {
             throw new RuntimeException("gzip压缩错误", e);
         }
@@ -38,16 +79,189 @@ public class GzipCompress implements Compress {
         if (bytes == null) {
             throw new NullPointerException("要解压的字节数组为null");
         }
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream();
-             GZIPInputStream gunzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int n;
-            while ((n = gunzip.read(buffer)) > -1) {
-                out.write(buffer, 0, n);
-            }
-            return out.toByteArray();
+        ByteBuf dst = Unpooled.buffer(bytes.length * 2);
+        try {
+            decompress(Unpooled.wrappedBuffer(bytes), dst);
+            return toByteArray(dst);
         } catch (IOException e) {
             throw new RuntimeException("gzip解压错误", e);
         }
     }
+
+    @Override
+    public OutputStream compressStream(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, BUFFER_SIZE);
+    }
+
+    @Override
+    public InputStream decompressStream(InputStream in) throws IOException {
+        return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+
+    @Override
+    public void compress(ByteBuf src, ByteBuf dst) throws IOException {
+        GzipContext context = CONTEXT.get();
+        Deflater deflater = context.deflater;
+        CRC32 crc = context.crc;
+        deflater.reset();
+        crc.reset();
+        //头部：魔数、压缩方法，无标志位，修改时间为0，与GZIPOutputStream相同
+        dst.writeShortLE(GZIP_MAGIC).writeByte(CM_DEFLATE).writeByte(0).writeInt(0).writeByte(0).writeByte(0);
+        int size = src.readableBytes();
+        while (src.isReadable()) {
+            int n = Math.min(src.readableBytes(), BUFFER_SIZE);
+            if (src.hasArray()) {
+                int offset = src.arrayOffset() + src.readerIndex();
+                deflater.setInput(src.array(), offset, n);
+                crc.update(src.array(), offset, n);
+            } else {
+                src.getBytes(src.readerIndex(), context.in, 0, n);
+                deflater.setInput(context.in, 0, n);
+                crc.update(context.in, 0, n);
+            }
+            //Deflater持有输入数组的引用，必须在读取下一段之前消耗完当前输入
+            while (!deflater.needsInput()) {
+                deflate(context, dst);
+            }
+            src.skipBytes(n);
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate(context, dst);
+        }
+        //尾部：CRC32和原始大小，小端序
+        dst.writeIntLE((int) crc.getValue()).writeIntLE(size);
+    }
+
+    @Override
+    public void decompress(ByteBuf src, ByteBuf dst) throws IOException {
+        readHeader(src);
+        if (src.readableBytes() >= 8) {
+            dst.ensureWritable(Math.min(src.getIntLE(src.writerIndex() - 4) & 0x7fffffff, MAX_SIZE_HINT));
+        }
+        GzipContext context = CONTEXT.get();
+        Inflater inflater = context.inflater;
+        CRC32 crc = context.crc;
+        inflater.reset();
+        crc.reset();
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    int n = Math.min(src.readableBytes(), BUFFER_SIZE);
+                    if (n == 0) {
+                        throw new EOFException("gzip数据不完整");
+                    }
+                    if (src.hasArray()) {
+                        inflater.setInput(src.array(), src.arrayOffset() + src.readerIndex(), n);
+                        src.skipBytes(n);
+                    } else {
+                        src.readBytes(context.in, 0, n);
+                        inflater.setInput(context.in, 0, n);
+                    }
+                }
+                if (inflate(context, dst) == 0 && inflater.needsDictionary()) {
+                    throw new ZipException("gzip数据需要预设字典");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+        //Inflater未使用的输入属于尾部，退回给src
+        src.readerIndex(src.readerIndex() - inflater.getRemaining());
+        if (src.readableBytes() < 8) {
+            throw new EOFException("gzip尾部不完整");
+        }
+        if (src.readIntLE() != (int) crc.getValue() || src.readIntLE() != (int) inflater.getBytesWritten()) {
+            throw new ZipException("gzip数据校验失败");
+        }
+    }
+
+    /**
+     * 将Deflater的输出写入dst，目标缓冲区为堆内存时直接写入其底层数组
+     **/
+    private static void deflate(GzipContext context, ByteBuf dst) {
+        if (dst.hasArray()) {
+            dst.ensureWritable(BUFFER_SIZE);
+            int n = context.deflater.deflate(dst.array(), dst.arrayOffset() + dst.writerIndex(), dst.writableBytes());
+            dst.writerIndex(dst.writerIndex() + n);
+        } else {
+            int n = context.deflater.deflate(context.out, 0, BUFFER_SIZE);
+            dst.writeBytes(context.out, 0, n);
+        }
+    }
+
+    /**
+     * 将Inflater的输出写入dst并更新CRC32，目标缓冲区为堆内存时直接写入其底层数组
+     * @return int 本次解压出的字节数
+     **/
+    private static int inflate(GzipContext context, ByteBuf dst) throws DataFormatException {
+        int n;
+        if (dst.hasArray()) {
+            dst.ensureWritable(BUFFER_SIZE);
+            int offset = dst.arrayOffset() + dst.writerIndex();
+            n = context.inflater.inflate(dst.array(), offset, dst.writableBytes());
+            context.crc.update(dst.array(), offset, n);
+            dst.writerIndex(dst.writerIndex() + n);
+        } else {
+            n = context.inflater.inflate(context.out, 0, BUFFER_SIZE);
+            context.crc.update(context.out, 0, n);
+            dst.writeBytes(context.out, 0, n);
+        }
+        return n;
+    }
+
+    /**
+     * 读取并校验gzip头部，跳过可选字段
+     **/
+    private static void readHeader(ByteBuf src) throws IOException {
+        if (src.readableBytes() < 10) {
+            throw new EOFException("gzip头部不完整");
+        }
+        if (src.readUnsignedShortLE() != GZIP_MAGIC) {
+            throw new ZipException("不是gzip格式");
+        }
+        if (src.readUnsignedByte() != CM_DEFLATE) {
+            throw new ZipException("不支持的gzip压缩方法");
+        }
+        int flags = src.readUnsignedByte();
+        //跳过修改时间、额外标志和操作系统
+        src.skipBytes(6);
+        if ((flags & FEXTRA) != 0) {
+            src.skipBytes(src.readUnsignedShortLE());
+        }
+        if ((flags & FNAME) != 0) {
+            skipZeroTerminated(src);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipZeroTerminated(src);
+        }
+        if ((flags & FHCRC) != 0) {
+            src.skipBytes(2);
+        }
+    }
+
+    private static void skipZeroTerminated(ByteBuf src) throws EOFException {
+        int end = src.indexOf(src.readerIndex(), src.writerIndex(), (byte) 0);
+        if (end < 0) {
+            throw new EOFException("gzip头部不完整");
+        }
+        src.readerIndex(end + 1);
+    }
+
+    private static byte[] toByteArray(ByteBuf buf) {
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * 每个线程复用的压缩状态
+     **/
+    private static final class GzipContext {
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] in = new byte[BUFFER_SIZE];
+        private final byte[] out = new byte[BUFFER_SIZE];
+    }
 }
@@ -0,0 +1,111 @@
+package github.cloudtour.compress.lz4;
+
+import github.cloudtour.compress.Compress;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * LZ4实现压缩(快速模式)，压缩速度远高于gzip
+ * <p>
+ * 使用LZ4块格式：4字节原始长度+一个压缩块，直接在缓冲区的NIO视图上压缩和解压，
+ * 不像帧格式那样为每条消息分配块缓冲区
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+public class Lz4Compress implements Compress {
+
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+    /**
+     * LZ4的最大压缩比约为255，原始长度超过该倍数的数据不可信
+     */
+    private static final int MAX_RATIO = 255;
+
+    private final LZ4Compressor compressor = compressor(LZ4_FACTORY);
+    private final LZ4SafeDecompressor decompressor = LZ4_FACTORY.safeDecompressor();
+
+    /**
+     * 获取压缩器，子类可以替换为高压缩率的实现
+     * @param factory LZ4工厂
+     * @return net.jpountz.lz4.LZ4Compressor
+     **/
+    protected LZ4Compressor compressor(LZ4Factory factory) {
+        return factory.fastCompressor();
+    }
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("要压缩的字节数组为null");
+        }
+        ByteBuf dst = Unpooled.buffer(4 + compressor.maxCompressedLength(bytes.length));
+        compress(Unpooled.wrappedBuffer(bytes), dst);
+        return toByteArray(dst);
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("要解压的字节数组为null");
+        }
+        ByteBuf dst = Unpooled.buffer();
+        try {
+            decompress(Unpooled.wrappedBuffer(bytes), dst);
+        } catch (IOException e) {
+            throw new RuntimeException("lz4解压错误", e);
+        }
+        return toByteArray(dst);
+    }
+
+    @Override
+    public void compress(ByteBuf src, ByteBuf dst) {
+        int length = src.readableBytes();
+        int maxLength = compressor.maxCompressedLength(length);
+        dst.writeInt(length);
+        dst.ensureWritable(maxLength);
+        ByteBuffer in = src.nioBuffer(src.readerIndex(), length);
+        ByteBuffer out = dst.nioBuffer(dst.writerIndex(), maxLength);
+        int compressedLength = compressor.compress(in, in.position(), length, out, out.position(), maxLength);
+        dst.writerIndex(dst.writerIndex() + compressedLength);
+        src.skipBytes(length);
+    }
+
+    @Override
+    public void decompress(ByteBuf src, ByteBuf dst) throws IOException {
+        if (src.readableBytes() < 4) {
+            throw new IOException("lz4数据不完整");
+        }
+        int length = src.readInt();
+        int compressedLength = src.readableBytes();
+        if (length < 0 || length > (long) compressedLength * MAX_RATIO) {
+            throw new IOException("lz4原始长度错误: " + length);
+        }
+        dst.ensureWritable(length);
+        ByteBuffer in = src.nioBuffer(src.readerIndex(), compressedLength);
+        ByteBuffer out = dst.nioBuffer(dst.writerIndex(), length);
+        int decompressedLength;
+        try {
+            decompressedLength = decompressor.decompress(in, in.position(), compressedLength, out, out.position(), length);
+        } catch (LZ4Exception e) {
+            throw new IOException("lz4数据损坏", e);
+        }
+        if (decompressedLength != length) {
+            throw new IOException("lz4数据长度不符: " + decompressedLength + "/" + length);
+        }
+        dst.writerIndex(dst.writerIndex() + length);
+        src.skipBytes(compressedLength);
+    }
+
+    private static byte[] toByteArray(ByteBuf buf) {
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,17 @@
+package github.cloudtour.compress.lz4;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * LZ4实现压缩(高压缩率模式)，压缩更慢但压缩率更高，解压速度与快速模式相同，块格式与快速模式兼容
+ * @author cloudtour
+ * @version 1.0
+ */
+public class Lz4HcCompress extends Lz4Compress {
+
+    @Override
+    protected LZ4Compressor compressor(LZ4Factory factory) {
+        return factory.highCompressor();
+    }
+}
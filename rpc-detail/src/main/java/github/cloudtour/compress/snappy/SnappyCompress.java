@@ -0,0 +1,27 @@
+package github.cloudtour.compress.snappy;
+
+import github.cloudtour.compress.AbstractStreamCompress;
+import org.xerial.snappy.SnappyFramedInputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Snappy实现压缩，使用Snappy帧格式
+ * @author cloudtour
+ * @version 1.0
+ */
+public class SnappyCompress extends AbstractStreamCompress {
+
+    @Override
+    public OutputStream compressStream(OutputStream out) throws IOException {
+        return new SnappyFramedOutputStream(out);
+    }
+
+    @Override
+    public InputStream decompressStream(InputStream in) throws IOException {
+        return new SnappyFramedInputStream(in);
+    }
+}
@@ -0,0 +1,35 @@
+package github.cloudtour.compress.zstd;
+
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import github.cloudtour.compress.AbstractStreamCompress;
+import github.cloudtour.enums.RpcConfigEnum;
+import github.cloudtour.utils.RpcConfigUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Zstd实现压缩，压缩级别通过rpc.compress.zstd.level配置
+ * @author cloudtour
+ * @version 1.0
+ */
+public class ZstdCompress extends AbstractStreamCompress {
+
+    /**
+     * 压缩级别，范围1~22，级别越高压缩率越高、速度越慢
+     */
+    private static final int LEVEL = RpcConfigUtil.getInt(RpcConfigEnum.COMPRESS_ZSTD_LEVEL, 3);
+
+    @Override
+    public OutputStream compressStream(OutputStream out) throws IOException {
+        return new ZstdOutputStream(out, RecyclingBufferPool.INSTANCE, LEVEL);
+    }
+
+    @Override
+    public InputStream decompressStream(InputStream in) throws IOException {
+        return new ZstdInputStream(in, RecyclingBufferPool.INSTANCE);
+    }
+}
@@ -0,0 +1,82 @@
+package github.cloudtour.compress.zstd;
+
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import github.cloudtour.compress.AbstractStreamCompress;
+import github.cloudtour.enums.RpcConfigEnum;
+import github.cloudtour.utils.RpcConfigUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.IntFunction;
+
+/**
+ * 使用按服务训练的字典的Zstd压缩
+ * <p>
+ * 正文格式为4字节字典编号加Zstd帧，编号为0表示未使用字典。字典由发送方训练并在连接上先于使用它的消息发送，
+ * 接收方按编号查找字典解压
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+public class ZstdDictCompress extends AbstractStreamCompress {
+
+    /**
+     * 表示未使用字典的编号
+     */
+    public static final int NO_DICTIONARY = 0;
+
+    /**
+     * 压缩级别，与zstd压缩使用相同的配置
+     */
+    private static final int LEVEL = RpcConfigUtil.getInt(RpcConfigEnum.COMPRESS_ZSTD_LEVEL, 3);
+
+    @Override
+    public OutputStream compressStream(OutputStream out) throws IOException {
+        return compressStream(out, null);
+    }
+
+    /**
+     * 使用字典压缩
+     * @param out        输出流
+     * @param dictionary 字典，为null时不使用字典
+     * @return java.io.OutputStream
+     **/
+    public OutputStream compressStream(OutputStream out, ZstdDictionary dictionary) throws IOException {
+        new DataOutputStream(out).writeInt(dictionary == null ? NO_DICTIONARY : dictionary.getId());
+        ZstdOutputStream zstd = new ZstdOutputStream(out, RecyclingBufferPool.INSTANCE, LEVEL);
+        if (dictionary != null) {
+            zstd.setDict(dictionary.getCompressDict(LEVEL));
+        }
+        return zstd;
+    }
+
+    @Override
+    public InputStream decompressStream(InputStream in) throws IOException {
+        return decompressStream(in, id -> null);
+    }
+
+    /**
+     * 按正文中的字典编号查找字典并解压
+     * @param in           输入流
+     * @param dictionaries 按编号查找字典，找不到时返回null
+     * @return java.io.InputStream
+     **/
+    public InputStream decompressStream(InputStream in, IntFunction<ZstdDictionary> dictionaries) throws IOException {
+        int id = new DataInputStream(in).readInt();
+        ZstdInputStream zstd = new ZstdInputStream(in, RecyclingBufferPool.INSTANCE);
+        if (id != NO_DICTIONARY) {
+            ZstdDictionary dictionary = dictionaries.apply(id);
+            if (dictionary == null) {
+                zstd.close();
+                throw new IOException("未找到编号为[" + id + "]的压缩字典");
+            }
+            zstd.setDict(dictionary.getDecompressDict());
+        }
+        return zstd;
+    }
+}
@@ -0,0 +1,63 @@
+package github.cloudtour.compress.zstd;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import lombok.Getter;
+
+/**
+ * 为某个服务训练出的Zstd字典，按字典编号区分不同版本
+ * @author cloudtour
+ * @version 1.0
+ */
+@Getter
+public class ZstdDictionary {
+
+    /**
+     * 字典所属的服务名称
+     */
+    private final String rpcServiceName;
+    /**
+     * 字典编号，由训练时生成，写在每个使用该字典压缩的正文前
+     */
+    private final int id;
+    /**
+     * 字典内容
+     */
+    private final byte[] content;
+
+    private volatile ZstdDictCompress compressDict;
+    private volatile ZstdDictDecompress decompressDict;
+
+    public ZstdDictionary(String rpcServiceName, int id, byte[] content) {
+        this.rpcServiceName = rpcServiceName;
+        this.id = id;
+        this.content = content;
+    }
+
+    /**
+     * 获取预处理过的压缩字典，首次使用时创建，并发创建多次也不影响正确性
+     * @param level 压缩级别
+     * @return com.github.luben.zstd.ZstdDictCompress
+     **/
+    public ZstdDictCompress getCompressDict(int level) {
+        ZstdDictCompress dict = compressDict;
+        if (dict == null) {
+            dict = new ZstdDictCompress(content, level);
+            compressDict = dict;
+        }
+        return dict;
+    }
+
+    /**
+     * 获取预处理过的解压字典，首次使用时创建
+     * @return com.github.luben.zstd.ZstdDictDecompress
+     **/
+    public ZstdDictDecompress getDecompressDict() {
+        ZstdDictDecompress dict = decompressDict;
+        if (dict == null) {
+            dict = new ZstdDictDecompress(content);
+            decompressDict = dict;
+        }
+        return dict;
+    }
+}
@@ -0,0 +1,177 @@
+package github.cloudtour.compress.zstd;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+import github.cloudtour.enums.RpcConfigEnum;
+import github.cloudtour.threadpool.CustomThreadPoolConfig;
+import github.cloudtour.threadpool.ThreadPoolFactoryUtil;
+import github.cloudtour.utils.RpcConfigUtil;
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Zstd字典训练器--从本节点发送的正文中按服务采样，样本足够后在后台训练出该服务的字典
+ * <p>
+ * 训练完成后新字典成为该服务的当前字典；之后每发送一定条数的消息重新采样训练，负载变化时字典随之轮换。
+ * 字典只在各连接上先发送给对方后才会被使用，因此轮换不影响已发出的消息
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+@Slf4j
+public class ZstdDictionaryTrainer {
+
+    /**
+     * 每次训练使用的样本数，通过rpc.compress.dict.samples配置
+     */
+    private static final int SAMPLES = RpcConfigUtil.getInt(RpcConfigEnum.COMPRESS_DICT_SAMPLES, 1000);
+    /**
+     * 字典大小(字节)，通过rpc.compress.dict.size配置
+     */
+    private static final int DICT_SIZE = RpcConfigUtil.getInt(RpcConfigEnum.COMPRESS_DICT_SIZE, 16 * 1024);
+    /**
+     * 训练出字典后，每发送多少条消息重新训练一次，0表示不轮换，通过rpc.compress.dict.retrainInterval配置
+     */
+    private static final long RETRAIN_INTERVAL = RpcConfigUtil.getLong(RpcConfigEnum.COMPRESS_DICT_RETRAIN_INTERVAL, 100000);
+    /**
+     * 单个样本的最大字节数，更大的正文只取开头部分，字典主要用于改善小正文的压缩率；
+     * 采样期间每个服务最多占用 样本数*该值 的内存
+     */
+    private static final int MAX_SAMPLE_SIZE = 4 * 1024;
+    /**
+     * 最多为多少个服务采样，服务名称来自消息的方法标识，限制数量避免异常的名称占用过多内存
+     */
+    private static final int MAX_SERVICES = 256;
+
+    /**
+     * key: 服务名称
+     */
+    private final Map<String, ServiceSamples> samplesMap = new ConcurrentHashMap<>();
+
+    private final ExecutorService trainExecutor;
+
+    public ZstdDictionaryTrainer() {
+        CustomThreadPoolConfig config = new CustomThreadPoolConfig();
+        config.setCorePoolSize(1);
+        config.setMaximumPoolSize(1);
+        trainExecutor = ThreadPoolFactoryUtil.createCustomThreadPoolIfAbsent(config, "zstd-dict-trainer", true);
+    }
+
+    /**
+     * 获取服务的当前字典
+     * @param rpcServiceName 服务名称
+     * @return github.cloudtour.compress.zstd.ZstdDictionary 还没有训练出字典时返回null
+     **/
+    public ZstdDictionary current(String rpcServiceName) {
+        ServiceSamples samples = samplesMap.get(rpcServiceName);
+        return samples == null ? null : samples.current;
+    }
+
+    /**
+     * 采集一条正文作为样本，需要时提交训练任务
+     * @param rpcServiceName 服务名称
+     * @param body           序列化后未压缩的正文
+     **/
+    public void sample(String rpcServiceName, ByteBuf body) {
+        ServiceSamples samples = samplesMap.get(rpcServiceName);
+        if (samples == null) {
+            if (samplesMap.size() >= MAX_SERVICES) {
+                return;
+            }
+            samples = samplesMap.computeIfAbsent(rpcServiceName, ServiceSamples::new);
+        }
+        samples.sample(body);
+    }
+
+    /**
+     * 单个服务的采样状态
+     **/
+    private final class ServiceSamples {
+        private final String rpcServiceName;
+        /**
+         * 上次训练后发送的消息数
+         */
+        private final AtomicLong sent = new AtomicLong();
+        private volatile ZstdDictionary current;
+        private volatile boolean training;
+        /**
+         * 本轮已采集的样本及其总字节数
+         */
+        private List<byte[]> pending = new ArrayList<>();
+        private int pendingBytes;
+
+        private ServiceSamples(String rpcServiceName) {
+            this.rpcServiceName = rpcServiceName;
+        }
+
+        private void sample(ByteBuf body) {
+            if (training) {
+                return;
+            }
+            //已有字典时，只在达到轮换间隔后重新采样
+            if (current != null && (RETRAIN_INTERVAL <= 0 || sent.incrementAndGet() < RETRAIN_INTERVAL)) {
+                return;
+            }
+            int size = Math.min(body.readableBytes(), MAX_SAMPLE_SIZE);
+            if (size == 0) {
+                return;
+            }
+            byte[] bytes = new byte[size];
+            body.getBytes(body.readerIndex(), bytes);
+            synchronized (this) {
+                if (training) {
+                    return;
+                }
+                pending.add(bytes);
+                pendingBytes += size;
+                if (pending.size() >= SAMPLES) {
+                    training = true;
+                    List<byte[]> toTrain = pending;
+                    int totalBytes = pendingBytes;
+                    pending = new ArrayList<>();
+                    pendingBytes = 0;
+                    try {
+                        trainExecutor.execute(() -> train(toTrain, totalBytes));
+                    } catch (RejectedExecutionException e) {
+                        log.warn("提交字典训练任务失败: [{}]", rpcServiceName);
+                        training = false;
+                    }
+                }
+            }
+        }
+
+        /**
+         * 按样本的实际总大小创建训练器，训练完成后训练器和样本即可回收
+         * @param toTrain    样本
+         * @param totalBytes 样本总字节数
+         **/
+        private void train(List<byte[]> toTrain, int totalBytes) {
+            try {
+                ZstdDictTrainer trainer = new ZstdDictTrainer(totalBytes, DICT_SIZE);
+                for (byte[] sample : toTrain) {
+                    trainer.addSample(sample);
+                }
+                byte[] content = trainer.trainSamples();
+                int id = (int) Zstd.getDictIdFromDict(content);
+                if (id != ZstdDictCompress.NO_DICTIONARY) {
+                    current = new ZstdDictionary(rpcServiceName, id, content);
+                    log.info("服务[{}]的压缩字典已更新，字典编号[{}]，大小[{}]", rpcServiceName, id, content.length);
+                }
+            } catch (ZstdException e) {
+                log.warn("训练服务[{}]的压缩字典失败，继续采样", rpcServiceName, e);
+            } finally {
+                sent.set(0);
+                training = false;
+            }
+        }
+    }
+}
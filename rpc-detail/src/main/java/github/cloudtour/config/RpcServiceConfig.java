@@ -23,6 +23,26 @@ public class RpcServiceConfig {
      */
     private String group = "";
 
+    /**
+     * 调用超时时间(毫秒)，0表示使用全局配置，仅客户端使用
+     */
+    private long timeout;
+
+    /**
+     * 服务的最大并发数，0表示不限制，仅服务端使用
+     */
+    private int maxConcurrency;
+
+    /**
+     * 序列化方式名字，为null或空字符串时不指定
+     */
+    private String serializer;
+
+    /**
+     * 压缩方式名字，为null或空字符串时不指定
+     */
+    private String compress;
+
     /**
      * 目标服务
      */
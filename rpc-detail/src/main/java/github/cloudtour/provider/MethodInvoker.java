@@ -0,0 +1,121 @@
+package github.cloudtour.provider;
+
+import github.cloudtour.transmission.dto.RpcRequest;
+import lombok.Getter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * 服务方法调用器--发布服务时为每个接口方法生成，调用时不再进行反射查找
+ * <p>
+ * 方法句柄已绑定服务对象，并适配为(Object[])Object的形式，调用点为单态调用，可被JIT内联；
+ * 每个调用器有一个服务端内唯一的编号，客户端握手后可以只用编号指定要调用的方法
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+public final class MethodInvoker {
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    /**
+     * 方法编号
+     */
+    @Getter
+    private final int methodId;
+    /**
+     * 方法所属的服务名称
+     */
+    @Getter
+    private final String rpcServiceName;
+    /**
+     * 方法标识，格式见{@link RpcRequest#methodKey}
+     */
+    @Getter
+    private final String methodKey;
+    private final Class<?>[] paramTypes;
+    private final MethodHandle methodHandle;
+
+    private MethodInvoker(int methodId, String rpcServiceName, String methodKey, Class<?>[] paramTypes, MethodHandle methodHandle) {
+        this.methodId = methodId;
+        this.rpcServiceName = rpcServiceName;
+        this.methodKey = methodKey;
+        this.paramTypes = paramTypes;
+        this.methodHandle = methodHandle;
+    }
+
+    /**
+     * 为服务对象的方法生成调用器
+     * @param methodId       方法编号
+     * @param rpcServiceName 服务名称
+     * @param service        服务对象
+     * @param method         接口中声明的方法
+     * @return github.cloudtour.provider.MethodInvoker
+     **/
+    public static MethodInvoker of(int methodId, String rpcServiceName, Object service, Method method) throws IllegalAccessException {
+        Class<?>[] paramTypes = method.getParameterTypes();
+        //非public接口中的方法也可以调用
+        method.setAccessible(true);
+        MethodHandle methodHandle = MethodHandles.lookup().unreflect(method)
+                .bindTo(service)
+                .asSpreader(Object[].class, paramTypes.length)
+                .asType(INVOKER_TYPE);
+        return new MethodInvoker(methodId, rpcServiceName, RpcRequest.methodKey(rpcServiceName, method.getName(), paramTypes),
+                paramTypes, methodHandle);
+    }
+
+    /**
+     * 判断参数类型是否与该方法一致
+     * @param paramTypes 参数类型
+     * @return boolean
+     **/
+    public boolean matches(Class<?>[] paramTypes) {
+        int length = paramTypes == null ? 0 : paramTypes.length;
+        if (length != this.paramTypes.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (paramTypes[i] != this.paramTypes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 判断参数类型名称是否与该方法一致，用于解析请求中按名称传输的参数类型
+     * @param paramTypeNames 参数类型名称
+     * @return boolean
+     **/
+    public boolean matches(String[] paramTypeNames) {
+        if (paramTypeNames.length != paramTypes.length) {
+            return false;
+        }
+        for (int i = 0; i < paramTypeNames.length; i++) {
+            if (!paramTypes[i].getName().equals(paramTypeNames[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取方法的参数类型
+     * @return java.lang.Class<?>[]
+     **/
+    public Class<?>[] getParamTypes() {
+        return paramTypes.clone();
+    }
+
+    /**
+     * 调用方法
+     * @param args 参数，无参方法可以为null
+     * @return java.lang.Object 方法返回值，void方法返回null
+     **/
+    public Object invoke(Object[] args) throws Throwable {
+        return (Object) methodHandle.invokeExact(args);
+    }
+}
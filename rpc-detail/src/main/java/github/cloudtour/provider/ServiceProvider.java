@@ -2,6 +2,8 @@ package github.cloudtour.provider;
 
 import github.cloudtour.config.RpcServiceConfig;
 
+import java.util.Map;
+
 /**
  * 存储和提供服务对象--用于服务器端(提供服务一端)--接口
  * @author cloudtour
@@ -22,6 +24,56 @@ public interface ServiceProvider {
      **/
     Object getService(String rpcServiceName);
 
+    /**
+     * 获取服务配置
+     * @param rpcServiceName    rpc服务名称
+     * @return github.cloudtour.config.RpcServiceConfig  服务配置，服务不存在时返回null
+     **/
+    RpcServiceConfig getServiceConfig(String rpcServiceName);
+
+    /**
+     * 获取服务方法的调用器
+     * @param rpcServiceName    rpc服务名称
+     * @param methodName        方法名称
+     * @param paramTypes        参数类型
+     * @return github.cloudtour.provider.MethodInvoker  方法调用器，服务接口中没有该方法时返回null
+     **/
+    MethodInvoker getMethodInvoker(String rpcServiceName, String methodName, Class<?>[] paramTypes);
+
+    /**
+     * 按参数类型名称获取服务方法的调用器，用于解析请求中按名称传输的参数类型，不加载任何类
+     * @param rpcServiceName    rpc服务名称
+     * @param methodName        方法名称
+     * @param paramTypeNames    参数类型名称
+     * @return github.cloudtour.provider.MethodInvoker  方法调用器，服务接口中没有该方法时返回null
+     **/
+    MethodInvoker getMethodInvoker(String rpcServiceName, String methodName, String[] paramTypeNames);
+
+    /**
+     * 根据方法编号获取服务方法的调用器
+     * @param methodId          方法编号
+     * @return github.cloudtour.provider.MethodInvoker  方法调用器，编号不存在时返回null
+     **/
+    MethodInvoker getMethodInvoker(int methodId);
+
+    /**
+     * 获取所有已导出方法的编号，在连接握手时发送给客户端
+     * @return java.util.Map<java.lang.String,java.lang.Integer>  key: 方法标识，value: 方法编号
+     **/
+    Map<String, Integer> getMethodIds();
+
+    /**
+     * 获取指定了序列化方式的服务，在连接握手时发送给客户端
+     * @return java.util.Map<java.lang.String,java.lang.Integer>  key: 服务名称，value: 序列化编码
+     **/
+    Map<String, Integer> getServiceSerializers();
+
+    /**
+     * 获取指定了压缩方式的服务，在连接握手时发送给客户端
+     * @return java.util.Map<java.lang.String,java.lang.Integer>  key: 服务名称，value: 压缩编码
+     **/
+    Map<String, Integer> getServiceCompressors();
+
     /**
      * 发布服务
      * @param rpcServiceConfig rpc服务相关属性
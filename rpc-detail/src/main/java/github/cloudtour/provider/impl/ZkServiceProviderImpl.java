@@ -1,20 +1,31 @@
 package github.cloudtour.provider.impl;
 
 import github.cloudtour.config.RpcServiceConfig;
+import github.cloudtour.enums.CompressTypeEnum;
 import github.cloudtour.enums.RpcErrorMessageEnum;
+import github.cloudtour.enums.SerializationTypeEnum;
 import github.cloudtour.exception.RpcException;
 import github.cloudtour.extension.ExtensionLoader;
+import github.cloudtour.factory.SingletonFactory;
+import github.cloudtour.provider.MethodInvoker;
 import github.cloudtour.provider.ServiceProvider;
 import github.cloudtour.registry.ServiceRegistry;
+import github.cloudtour.serialize.ServiceTypeRegistry;
 import github.cloudtour.transmission.transport.netty.server.NettyRpcServer;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.lang.reflect.Method;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 存储和提供服务对象--用于服务器端(提供服务一端)--实现类
@@ -28,13 +39,42 @@ public class ZkServiceProviderImpl implements ServiceProvider {
      * value: service对象
      */
     private final Map<String, Object> serviceMap;
+    /**
+     * key: rpc服务名称(interface name + version + group)
+     * value: 服务配置
+     */
+    private final Map<String, RpcServiceConfig> serviceConfigMap;
+    /**
+     * key: rpc服务名称(interface name + version + group)
+     * value: 方法名称 -> 同名方法的调用器(重载方法按参数类型区分)
+     */
+    private final Map<String, Map<String, MethodInvoker[]>> invokerMap;
+    /**
+     * 下标为方法编号的调用器数组，编号从1开始，新增服务时整体替换
+     */
+    private volatile MethodInvoker[] invokersById;
+    /**
+     * key: 方法标识，value: 方法编号
+     */
+    private final Map<String, Integer> methodIds;
+    private final AtomicInteger methodIdGenerator;
     private final Set<String> registeredService;
     private final ServiceRegistry serviceRegistry;
+    /**
+     * 收集服务接口中出现的类型，供序列化时预先注册
+     */
+    private final ServiceTypeRegistry serviceTypeRegistry;
 
     public ZkServiceProviderImpl() {
         serviceMap = new ConcurrentHashMap<>();
+        serviceConfigMap = new ConcurrentHashMap<>();
+        invokerMap = new ConcurrentHashMap<>();
+        invokersById = new MethodInvoker[1];
+        methodIds = new ConcurrentHashMap<>();
+        methodIdGenerator = new AtomicInteger();
         registeredService = ConcurrentHashMap.newKeySet();
         serviceRegistry = ExtensionLoader.getExtensionLoader(ServiceRegistry.class).getExtension("zk");
+        serviceTypeRegistry = SingletonFactory.getInstance(ServiceTypeRegistry.class);
     }
 
     @Override
@@ -43,8 +83,11 @@ public class ZkServiceProviderImpl implements ServiceProvider {
         if (registeredService.contains(rpcServiceName)) {
             return;
         }
+        checkCodec(rpcServiceConfig);
         registeredService.add(rpcServiceName);
         serviceMap.put(rpcServiceName, rpcServiceConfig.getService());
+        serviceConfigMap.put(rpcServiceName, rpcServiceConfig);
+        invokerMap.put(rpcServiceName, buildInvokers(rpcServiceName, rpcServiceConfig.getService()));
         log.info("Add service: {} and interfaces:{}", rpcServiceName, rpcServiceConfig.getService().getClass().getInterfaces());
     }
 
@@ -57,6 +100,132 @@ public class ZkServiceProviderImpl implements ServiceProvider {
         return service;
     }
 
+    @Override
+    public RpcServiceConfig getServiceConfig(String rpcServiceName) {
+        return serviceConfigMap.get(rpcServiceName);
+    }
+
+    @Override
+    public MethodInvoker getMethodInvoker(String rpcServiceName, String methodName, Class<?>[] paramTypes) {
+        Map<String, MethodInvoker[]> invokers = invokerMap.get(rpcServiceName);
+        if (invokers == null) {
+            return null;
+        }
+        MethodInvoker[] candidates = invokers.get(methodName);
+        if (candidates == null) {
+            return null;
+        }
+        for (MethodInvoker invoker : candidates) {
+            if (invoker.matches(paramTypes)) {
+                return invoker;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public MethodInvoker getMethodInvoker(String rpcServiceName, String methodName, String[] paramTypeNames) {
+        Map<String, MethodInvoker[]> invokers = invokerMap.get(rpcServiceName);
+        if (invokers == null) {
+            return null;
+        }
+        MethodInvoker[] candidates = invokers.get(methodName);
+        if (candidates == null) {
+            return null;
+        }
+        for (MethodInvoker invoker : candidates) {
+            if (invoker.matches(paramTypeNames)) {
+                return invoker;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public MethodInvoker getMethodInvoker(int methodId) {
+        MethodInvoker[] invokers = invokersById;
+        return methodId > 0 && methodId < invokers.length ? invokers[methodId] : null;
+    }
+
+    @Override
+    public Map<String, Integer> getMethodIds() {
+        return new HashMap<>(methodIds);
+    }
+
+    @Override
+    public Map<String, Integer> getServiceSerializers() {
+        Map<String, Integer> result = new HashMap<>();
+        serviceConfigMap.forEach((rpcServiceName, config) -> {
+            SerializationTypeEnum serializer = SerializationTypeEnum.getByName(config.getSerializer());
+            if (serializer != null) {
+                result.put(rpcServiceName, (int) serializer.getCode());
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public Map<String, Integer> getServiceCompressors() {
+        Map<String, Integer> result = new HashMap<>();
+        serviceConfigMap.forEach((rpcServiceName, config) -> {
+            CompressTypeEnum compress = CompressTypeEnum.getByName(config.getCompress());
+            if (compress != null) {
+                result.put(rpcServiceName, (int) compress.getCode());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 检查服务指定的序列化方式和压缩方式
+     * @param rpcServiceConfig 服务配置
+     **/
+    private static void checkCodec(RpcServiceConfig rpcServiceConfig) {
+        String serializer = rpcServiceConfig.getSerializer();
+        if (serializer != null && !serializer.isEmpty() && SerializationTypeEnum.getByName(serializer) == null) {
+            throw new RpcException(RpcErrorMessageEnum.UNSUPPORTED_SERIALIZER, serializer);
+        }
+        String compress = rpcServiceConfig.getCompress();
+        if (compress != null && !compress.isEmpty() && CompressTypeEnum.getByName(compress) == null) {
+            throw new RpcException(RpcErrorMessageEnum.UNSUPPORTED_COMPRESS, compress);
+        }
+    }
+
+    /**
+     * 为服务实现的所有接口方法生成调用器并分配方法编号
+     * @param rpcServiceName 服务名称
+     * @param service        服务对象
+     * @return java.util.Map<java.lang.String,github.cloudtour.provider.MethodInvoker[]>
+     **/
+    private synchronized Map<String, MethodInvoker[]> buildInvokers(String rpcServiceName, Object service) {
+        Map<String, List<MethodInvoker>> invokers = new HashMap<>();
+        List<MethodInvoker> created = new ArrayList<>();
+        for (Class<?> serviceInterface : service.getClass().getInterfaces()) {
+            serviceTypeRegistry.register(serviceInterface);
+            for (Method method : serviceInterface.getMethods()) {
+                try {
+                    MethodInvoker invoker = MethodInvoker.of(methodIdGenerator.incrementAndGet(), rpcServiceName, service, method);
+                    invokers.computeIfAbsent(method.getName(), k -> new ArrayList<>()).add(invoker);
+                    created.add(invoker);
+                } catch (IllegalAccessException e) {
+                    log.warn("无法为方法[{}]生成调用器，该方法不会发布，调用该方法的请求将失败", method, e);
+                }
+            }
+        }
+        //先发布编号数组再公开编号，客户端拿到的编号一定能找到调用器
+        MethodInvoker[] byId = Arrays.copyOf(invokersById, methodIdGenerator.get() + 1);
+        for (MethodInvoker invoker : created) {
+            byId[invoker.getMethodId()] = invoker;
+        }
+        invokersById = byId;
+        for (MethodInvoker invoker : created) {
+            methodIds.putIfAbsent(invoker.getMethodKey(), invoker.getMethodId());
+        }
+        Map<String, MethodInvoker[]> result = new HashMap<>(invokers.size() * 2);
+        invokers.forEach((name, list) -> result.put(name, list.toArray(new MethodInvoker[0])));
+        return result;
+    }
+
 
 
     @Override
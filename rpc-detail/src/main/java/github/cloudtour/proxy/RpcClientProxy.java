@@ -1,26 +1,45 @@
 package github.cloudtour.proxy;
 
+import github.cloudtour.annotation.RpcTimeout;
 import github.cloudtour.config.RpcServiceConfig;
+import github.cloudtour.enums.CompressTypeEnum;
+import github.cloudtour.enums.RpcConfigEnum;
 import github.cloudtour.enums.RpcErrorMessageEnum;
 import github.cloudtour.enums.RpcResponseCodeEnum;
+import github.cloudtour.enums.SerializationTypeEnum;
 import github.cloudtour.exception.RpcException;
+import github.cloudtour.factory.SingletonFactory;
+import github.cloudtour.serialize.ServiceTypeRegistry;
 import github.cloudtour.transmission.dto.RpcRequest;
 import github.cloudtour.transmission.dto.RpcResponse;
 import github.cloudtour.transmission.transport.RpcRequestTransport;
 import github.cloudtour.transmission.transport.netty.client.NettyRpcClient;
+import github.cloudtour.utils.RpcConfigUtil;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.UUID;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 动态代理类。
  * 当一个动态代理对象调用一个方法时，它实际上调用了以下invoke方法。
  * 正是因为有了动态代理，客户端调用的远程方法就像调用本地方法一样（屏蔽了中间进程）
+ * <p>
+ * 返回值类型为CompletableFuture(或Future、CompletionStage)的方法为异步调用：直接返回未完成的future，
+ * 收到响应后由Netty线程完成，调用线程不会阻塞
+ * <p>
+ * 创建代理对象时为接口的每个方法预先生成请求模板(接口名、方法名、参数类型、服务名称、超时时间等)，
+ * 调用时只需填入参数即可构造请求
  *
  * @author cloudtour
  * @version 1.0
@@ -30,11 +49,24 @@ public class RpcClientProxy implements InvocationHandler {
 
     private static final String INTERFACE_NAME = "interfaceName";
 
+    /**
+     * 默认调用超时时间(毫秒)，可通过rpc.client.timeout配置
+     */
+    private static final long DEFAULT_TIMEOUT = RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_TIMEOUT, 3000);
+    /**
+     * 同步调用等待结果时在超时时间之外额外等待的时间(毫秒)，超时本应由传输层触发，这里只作兜底
+     */
+    private static final long WAIT_MARGIN = 500;
+
     /**
      * 用于向服务器发送请求。
      */
     private final RpcRequestTransport rpcRequestTransport;
     private final RpcServiceConfig rpcServiceConfig;
+    /**
+     * key: 接口方法，value: 该方法的请求模板
+     */
+    private final Map<Method, RequestTemplate> requestTemplates = new ConcurrentHashMap<>();
 
     public RpcClientProxy(RpcRequestTransport rpcRequestTransport, RpcServiceConfig rpcServiceConfig) {
         this.rpcRequestTransport = rpcRequestTransport;
@@ -52,6 +84,11 @@ public class RpcClientProxy implements InvocationHandler {
      */
     @SuppressWarnings("unchecked")
     public <T> T getProxy(Class<T> clazz) {
+        //预先注册接口中出现的类型，序列化时可以只写类型编号
+        SingletonFactory.getInstance(ServiceTypeRegistry.class).register(clazz);
+        for (Method method : clazz.getMethods()) {
+            requestTemplates.computeIfAbsent(method, this::createTemplate);
+        }
         return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[]{clazz}, this);
     }
 
@@ -62,26 +99,135 @@ public class RpcClientProxy implements InvocationHandler {
     @SneakyThrows
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        log.info("调用方法: [{}]", method.getName());
-        //构建rpc请求
-        RpcRequest rpcRequest = RpcRequest.builder().methodName(method.getName())
-                .parameters(args)
-                .interfaceName(method.getDeclaringClass().getName())
-                .paramTypes(method.getParameterTypes())
-                .requestId(UUID.randomUUID().toString())
-                .group(rpcServiceConfig.getGroup())
-                .version(rpcServiceConfig.getVersion())
-                .build();
+        //Object中的方法在本地处理，不发起远程调用；代理只会分派equals、hashCode和toString
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return proxy.getClass().getInterfaces()[0].getName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                default:
+                    throw new UnsupportedOperationException("Object方法不支持远程调用: " + method.getName());
+            }
+        }
+        log.debug("调用方法: [{}]", method.getName());
+        RequestTemplate template = requestTemplates.get(method);
+        if (template == null) {
+            template = requestTemplates.computeIfAbsent(method, this::createTemplate);
+        }
+        //根据模板构建rpc请求
+        RpcRequest rpcRequest = template.newRequest(args);
+        if (template.async) {
+            return invokeAsync(rpcRequest);
+        }
         RpcResponse<Object> rpcResponse = null;
         if (rpcRequestTransport instanceof NettyRpcClient) {
             //向服务器发送请求
             CompletableFuture<RpcResponse<Object>> completableFuture = (CompletableFuture<RpcResponse<Object>>) rpcRequestTransport.sendRpcRequest(rpcRequest);
-            rpcResponse = completableFuture.get();
+            try {
+                //超时或连接关闭时future会以异常结束，等待时间再以超时时间为上限兜底
+                long timeout = rpcRequest.getTimeout();
+                rpcResponse = timeout > 0
+                        ? completableFuture.get(timeout + WAIT_MARGIN, TimeUnit.MILLISECONDS)
+                        : completableFuture.get();
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            } catch (TimeoutException e) {
+                throw new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT, rpcRequest.getRpcServiceName());
+            }
         }
         this.check(rpcResponse, rpcRequest);
         return rpcResponse.getData();
     }
 
+    /**
+     * 异步调用：返回的future在收到响应后完成，值为远程方法返回的future的结果
+     * @param rpcRequest rpc请求
+     * @return java.util.concurrent.CompletableFuture<java.lang.Object>
+     **/
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Object> invokeAsync(RpcRequest rpcRequest) {
+        if (!(rpcRequestTransport instanceof NettyRpcClient)) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
+        }
+        CompletableFuture<RpcResponse<Object>> completableFuture = (CompletableFuture<RpcResponse<Object>>) rpcRequestTransport.sendRpcRequest(rpcRequest);
+        return completableFuture.thenApply(rpcResponse -> {
+            this.check(rpcResponse, rpcRequest);
+            return rpcResponse.getData();
+        });
+    }
+
+    /**
+     * 生成方法的请求模板
+     * @param method 接口方法
+     * @return github.cloudtour.proxy.RpcClientProxy.RequestTemplate
+     **/
+    private RequestTemplate createTemplate(Method method) {
+        return new RequestTemplate(method.getDeclaringClass().getName(), method.getName(), method.getParameterTypes(),
+                rpcServiceConfig.getGroup(), rpcServiceConfig.getVersion(), resolveTimeout(method), resolveSerializer(), resolveCompress(), isAsync(method));
+    }
+
+    /**
+     * 判断是否为异步方法：返回值类型可以接收CompletableFuture
+     * @param method 调用的方法
+     * @return boolean
+     **/
+    private static boolean isAsync(Method method) {
+        Class<?> returnType = method.getReturnType();
+        return (Future.class.isAssignableFrom(returnType) || CompletionStage.class.isAssignableFrom(returnType))
+                && returnType.isAssignableFrom(CompletableFuture.class);
+    }
+
+    /**
+     * 获取方法的调用超时时间：方法上的@RpcTimeout优先，其次为@RpcReference中的timeout，最后为全局配置
+     * @param method 调用的方法
+     * @return long 超时时间(毫秒)
+     **/
+    private long resolveTimeout(Method method) {
+        RpcTimeout rpcTimeout = method.getAnnotation(RpcTimeout.class);
+        if (rpcTimeout != null && rpcTimeout.value() > 0) {
+            return rpcTimeout.value();
+        }
+        if (rpcServiceConfig.getTimeout() > 0) {
+            return rpcServiceConfig.getTimeout();
+        }
+        return DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * 获取服务指定的序列化方式：@RpcReference中的serializer为空时返回null，由服务端指定或握手协商决定
+     * @return github.cloudtour.enums.SerializationTypeEnum
+     **/
+    private SerializationTypeEnum resolveSerializer() {
+        String name = rpcServiceConfig.getSerializer();
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        SerializationTypeEnum serializer = SerializationTypeEnum.getByName(name);
+        if (serializer == null) {
+            throw new RpcException(RpcErrorMessageEnum.UNSUPPORTED_SERIALIZER, name);
+        }
+        return serializer;
+    }
+
+    /**
+     * 获取服务指定的压缩方式：@RpcReference中的compress为空时返回null，由服务端指定或握手协商决定
+     * @return github.cloudtour.enums.CompressTypeEnum
+     **/
+    private CompressTypeEnum resolveCompress() {
+        String name = rpcServiceConfig.getCompress();
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        CompressTypeEnum compress = CompressTypeEnum.getByName(name);
+        if (compress == null) {
+            throw new RpcException(RpcErrorMessageEnum.UNSUPPORTED_COMPRESS, name);
+        }
+        return compress;
+    }
+
     /**
      *  对rpcResponse进行检查
      **/
@@ -90,12 +236,51 @@ public class RpcClientProxy implements InvocationHandler {
             throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
         }
 
-        if (!rpcRequest.getRequestId().equals(rpcResponse.getRequestId())) {
-            throw new RpcException(RpcErrorMessageEnum.REQUEST_NOT_MATCH_RESPONSE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
-        }
-
         if (rpcResponse.getCode() == null || !rpcResponse.getCode().equals(RpcResponseCodeEnum.SUCCESS.getCode())) {
             throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
         }
     }
+
+    /**
+     * 方法的请求模板，保存构造请求所需的不变信息
+     **/
+    private static final class RequestTemplate {
+        private final String interfaceName;
+        private final String methodName;
+        private final Class<?>[] paramTypes;
+        private final String group;
+        private final String version;
+        private final String rpcServiceName;
+        private final String methodKey;
+        private final long timeout;
+        private final SerializationTypeEnum serializer;
+        private final CompressTypeEnum compress;
+        private final boolean async;
+
+        private RequestTemplate(String interfaceName, String methodName, Class<?>[] paramTypes,
+                                String group, String version, long timeout, SerializationTypeEnum serializer,
+                                CompressTypeEnum compress, boolean async) {
+            this.interfaceName = interfaceName;
+            this.methodName = methodName;
+            this.paramTypes = paramTypes;
+            this.group = group;
+            this.version = version;
+            this.rpcServiceName = interfaceName + group + version;
+            this.methodKey = RpcRequest.methodKey(rpcServiceName, methodName, paramTypes);
+            this.timeout = timeout;
+            this.serializer = serializer;
+            this.compress = compress;
+            this.async = async;
+        }
+
+        /**
+         * 使用调用参数构造rpc请求
+         * @param args 调用参数
+         * @return github.cloudtour.transmission.dto.RpcRequest
+         **/
+        private RpcRequest newRequest(Object[] args) {
+            return new RpcRequest(interfaceName, methodName, args, paramTypes, version, group, timeout, rpcServiceName, methodKey,
+                    serializer, compress);
+        }
+    }
 }
@@ -41,7 +41,7 @@ public class ZkServiceDiscoveryImpl implements ServiceDiscovery {
         }
         // 负载均衡
         String targetServiceUrl = loadBalance.selectServiceAddress(serviceUrlList, rpcRequest);
-        log.info("已成功找到服务地址:[{}]", targetServiceUrl);
+        log.debug("已成功找到服务地址:[{}]", targetServiceUrl);
         String[] socketAddressArray = targetServiceUrl.split(":");
         String host = socketAddressArray[0];
         int port = Integer.parseInt(socketAddressArray[1]);
@@ -0,0 +1,23 @@
+package github.cloudtour.serialize;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 单个值的包装类型--只能按已知类序列化的序列化方式借助它写出类型未知的方法参数和返回值
+ * @author cloudtour
+ * @version 1.0
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+public class SerializedValue implements Serializable {
+    private static final long serialVersionUID = -3047395528119602377L;
+    /**
+     * 被包装的值
+     */
+    private Object value;
+}
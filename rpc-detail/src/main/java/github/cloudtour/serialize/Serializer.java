@@ -1,7 +1,13 @@
 package github.cloudtour.serialize;
 
+import github.cloudtour.exception.SerializeException;
 import github.cloudtour.extension.SPI;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  * 自定义序列化接口--所有序列化方式都需要实现该接口
  * @author cloudtour
@@ -24,4 +30,78 @@ public interface Serializer {
      * @return T
      **/
     <T> T deserialize(byte[] bytes, Class<T> clazz);
+
+    /**
+     * 序列化到输出流--编码器传入包装了ByteBuf的ByteBufOutputStream，对象直接写入ByteBuf而不产生中间字节数组
+     * 默认实现退化为字节数组方式，具体序列化方式应重写该方法
+     * @param obj           要序列化的对象
+     * @param outputStream  输出流
+     **/
+    default void serialize(Object obj, OutputStream outputStream) {
+        try {
+            outputStream.write(serialize(obj));
+        } catch (IOException e) {
+            throw new SerializeException("序列化写入输出流失败");
+        }
+    }
+
+    /**
+     * 从输入流反序列化--解码器传入包装了ByteBuf切片的ByteBufInputStream
+     * 默认实现退化为字节数组方式，具体序列化方式应重写该方法
+     * @param inputStream  输入流
+     * @param clazz        反序列化后的类类型
+     * @return T
+     **/
+    default <T> T deserialize(InputStream inputStream, Class<T> clazz) {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = inputStream.read(buffer)) > -1) {
+                out.write(buffer, 0, n);
+            }
+            return deserialize(out.toByteArray(), clazz);
+        } catch (IOException e) {
+            throw new SerializeException("从输入流读取数据失败");
+        }
+    }
+
+    /**
+     * 序列化单个值--请求和响应的固定字段由编解码器手工写入，只有方法参数和返回值交给序列化方式
+     * 默认实现包装为{@link SerializedValue}后序列化，能直接写出任意对象及其类型的序列化方式应重写该方法
+     * @param value         要序列化的值，可以为null
+     * @param outputStream  输出流
+     **/
+    default void serializeValue(Object value, OutputStream outputStream) {
+        serialize(new SerializedValue(value), outputStream);
+    }
+
+    /**
+     * 从输入流反序列化单个值，与{@link #serializeValue(Object, OutputStream)}对应
+     * @param inputStream  输入流
+     * @return java.lang.Object
+     **/
+    default Object deserializeValue(InputStream inputStream) {
+        return deserialize(inputStream, SerializedValue.class).getValue();
+    }
+
+    /**
+     * 按连接的服务类型编号表序列化单个值--编号表由握手确定，用类型编号代替类名的序列化方式应重写该方法
+     * 默认实现忽略编号表
+     * @param value         要序列化的值，可以为null
+     * @param outputStream  输出流
+     * @param typeTable     服务类型编号表，可以为null
+     **/
+    default void serializeValue(Object value, OutputStream outputStream, ServiceTypeTable typeTable) {
+        serializeValue(value, outputStream);
+    }
+
+    /**
+     * 按连接的服务类型编号表反序列化单个值，与{@link #serializeValue(Object, OutputStream, ServiceTypeTable)}对应
+     * @param inputStream  输入流
+     * @param typeTable    服务类型编号表，可以为null
+     * @return java.lang.Object
+     **/
+    default Object deserializeValue(InputStream inputStream, ServiceTypeTable typeTable) {
+        return deserializeValue(inputStream);
+    }
 }
@@ -0,0 +1,164 @@
+package github.cloudtour.serialize;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+/**
+ * 服务类型注册表--收集已发布和已引用的服务接口中出现的参数类型与返回值类型，
+ * 供需要预先注册类型的序列化方式使用(如Kryo用类型编号代替类名)
+ * <p>
+ * 自定义类型会继续收集其字段的类型；java包下的类型只收集其本身
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+@Slf4j
+public class ServiceTypeRegistry {
+
+    private final Set<Class<?>> registeredInterfaces = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 已收集的类型，按收集顺序排列，只追加不删除
+     */
+    private volatile List<Class<?>> types = Collections.emptyList();
+    /**
+     * key: 类型名称，value: 已收集的类型，与types同时更新，用于按类型或名称查找
+     */
+    private volatile Map<String, Class<?>> typesByName = Collections.emptyMap();
+    /**
+     * 已收集类型的编号表，与types同时更新，服务端在握手响应中发送
+     */
+    private volatile ServiceTypeTable table = ServiceTypeTable.EMPTY;
+
+    /**
+     * 注册服务接口，收集其方法中出现的类型
+     * @param serviceInterface 服务接口
+     **/
+    public void register(Class<?> serviceInterface) {
+        if (!registeredInterfaces.add(serviceInterface)) {
+            return;
+        }
+        Set<Class<?>> found = new LinkedHashSet<>();
+        for (Method method : serviceInterface.getMethods()) {
+            for (Type parameterType : method.getGenericParameterTypes()) {
+                collect(parameterType, found);
+            }
+            collect(method.getGenericReturnType(), found);
+        }
+        synchronized (this) {
+            Set<Class<?>> merged = new LinkedHashSet<>(types);
+            if (merged.addAll(found)) {
+                List<String> names = new ArrayList<>(merged.size());
+                Map<String, Class<?>> byName = new HashMap<>(merged.size() * 2);
+                for (Class<?> type : merged) {
+                    names.add(type.getName());
+                    byName.put(type.getName(), type);
+                }
+                typesByName = Collections.unmodifiableMap(byName);
+                table = ServiceTypeTable.of(names);
+                types = Collections.unmodifiableList(new ArrayList<>(merged));
+                log.info("服务接口[{}]的类型已注册，共[{}]个类型", serviceInterface.getName(), merged.size());
+            }
+        }
+    }
+
+    /**
+     * 获取已收集的类型，列表只会增长，调用方可以用列表大小判断是否有新类型
+     * @return java.util.List<java.lang.Class<?>>
+     **/
+    public List<Class<?>> getTypes() {
+        return types;
+    }
+
+    /**
+     * 是否已收集该类型
+     * @param type 类型
+     * @return boolean
+     **/
+    public boolean contains(Class<?> type) {
+        return typesByName.get(type.getName()) == type;
+    }
+
+    /**
+     * 按名称查找已收集的类型
+     * @param name 类型名称
+     * @return java.lang.Class<?> 未收集该类型时返回null
+     **/
+    public Class<?> getType(String name) {
+        return typesByName.get(name);
+    }
+
+    /**
+     * 获取已收集类型的编号表，编号即收集顺序
+     * @return github.cloudtour.serialize.ServiceTypeTable
+     **/
+    public ServiceTypeTable getTable() {
+        return table;
+    }
+
+    private static void collect(Type type, Set<Class<?>> found) {
+        if (type instanceof Class) {
+            collectClass((Class<?>) type, found);
+        } else if (type instanceof ParameterizedType) {
+            //CompletableFuture<T>、List<T>等泛型类型，收集其原始类型和类型参数
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            //异步方法的返回值只传输future的结果，future本身不会被序列化
+            Type rawType = parameterizedType.getRawType();
+            if (!(rawType instanceof Class) || !isFuture((Class<?>) rawType)) {
+                collect(rawType, found);
+            }
+            for (Type argument : parameterizedType.getActualTypeArguments()) {
+                collect(argument, found);
+            }
+        } else if (type instanceof GenericArrayType) {
+            collect(((GenericArrayType) type).getGenericComponentType(), found);
+        }
+    }
+
+    private static boolean isFuture(Class<?> clazz) {
+        return Future.class.isAssignableFrom(clazz) || CompletionStage.class.isAssignableFrom(clazz);
+    }
+
+    private static void collectClass(Class<?> clazz, Set<Class<?>> found) {
+        if (clazz.isPrimitive() || clazz == void.class || found.contains(clazz)) {
+            return;
+        }
+        if (clazz.isArray()) {
+            found.add(clazz);
+            collectClass(clazz.getComponentType(), found);
+            return;
+        }
+        //接口和抽象类不会出现在序列化结果中，实际写出的是具体类型
+        if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())) {
+            return;
+        }
+        found.add(clazz);
+        if (clazz.getName().startsWith("java.")) {
+            return;
+        }
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                    collect(field.getGenericType(), found);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package github.cloudtour.serialize;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 服务类型编号表--服务端在握手响应中给出按顺序排列的服务类型名称，双方按该顺序为这些类型分配相同的编号
+ * <p>
+ * 编号表只包含类型名称，由序列化方式在本地已收集的服务类型中按名称查找，不按名称加载类；
+ * 本地没有的类型只占用编号，不会被写出。编号表按名称比较，相同名称列表的编号表共用同一实例
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+public final class ServiceTypeTable {
+
+    /**
+     * 空编号表，握手完成前和不需要编号的场景使用
+     */
+    public static final ServiceTypeTable EMPTY = new ServiceTypeTable(Collections.emptyList());
+    /**
+     * 最多共用的编号表数，超出后新建的编号表不再共用
+     */
+    private static final int MAX_INTERNED = 64;
+    private static final Map<List<String>, ServiceTypeTable> INTERNED = new ConcurrentHashMap<>();
+
+    private final List<String> names;
+    private final int hash;
+
+    private ServiceTypeTable(List<String> names) {
+        this.names = names;
+        this.hash = names.hashCode();
+    }
+
+    /**
+     * 按类型名称创建编号表
+     * @param names 类型名称，按编号顺序排列，可以为null
+     * @return github.cloudtour.serialize.ServiceTypeTable
+     **/
+    public static ServiceTypeTable of(List<String> names) {
+        if (names == null || names.isEmpty()) {
+            return EMPTY;
+        }
+        List<String> copy = Collections.unmodifiableList(new ArrayList<>(names));
+        ServiceTypeTable table = INTERNED.get(copy);
+        if (table != null) {
+            return table;
+        }
+        table = new ServiceTypeTable(copy);
+        if (INTERNED.size() >= MAX_INTERNED) {
+            return table;
+        }
+        ServiceTypeTable existing = INTERNED.putIfAbsent(copy, table);
+        return existing != null ? existing : table;
+    }
+
+    /**
+     * 获取类型名称，下标即编号
+     * @return java.util.List<java.lang.String>
+     **/
+    public List<String> getNames() {
+        return names;
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ServiceTypeTable)) {
+            return false;
+        }
+        ServiceTypeTable that = (ServiceTypeTable) o;
+        return hash == that.hash && names.equals(that.names);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceTypeTable" + names;
+    }
+}
@@ -0,0 +1,106 @@
+package github.cloudtour.serialize.hessian;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.SerializerFactory;
+import github.cloudtour.exception.SerializeException;
+import github.cloudtour.serialize.Serializer;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 利用Hessian2协议实现序列化--比Hessian1更紧凑，重复出现的类定义和字符串只写一次
+ * <p>
+ * 所有线程共享一个SerializerFactory，类的序列化器只需生成一次；Hessian2Output和Hessian2Input
+ * 连同其内部缓冲区按线程复用，直接读写编解码器传入的缓冲区流
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+public class Hessian2Serializer implements Serializer {
+
+    private static final SerializerFactory SERIALIZER_FACTORY = new SerializerFactory();
+
+    private static final FastThreadLocal<Hessian2Output> OUTPUT = new FastThreadLocal<Hessian2Output>() {
+        @Override
+        protected Hessian2Output initialValue() {
+            Hessian2Output output = new Hessian2Output();
+            output.setSerializerFactory(SERIALIZER_FACTORY);
+            return output;
+        }
+    };
+
+    private static final FastThreadLocal<Hessian2Input> INPUT = new FastThreadLocal<Hessian2Input>() {
+        @Override
+        protected Hessian2Input initialValue() {
+            Hessian2Input input = new Hessian2Input();
+            input.setSerializerFactory(SERIALIZER_FACTORY);
+            return input;
+        }
+    };
+
+    @Override
+    public byte[] serialize(Object obj) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        serialize(obj, byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+        return deserialize(new ByteArrayInputStream(bytes), clazz);
+    }
+
+    @Override
+    public void serialize(Object obj, OutputStream outputStream) {
+        Hessian2Output hessian2Output = OUTPUT.get();
+        try {
+            hessian2Output.init(outputStream);
+            hessian2Output.writeObject(obj);
+            hessian2Output.flush();
+        } catch (Exception e) {
+            throw new SerializeException("Hessian2序列化失败");
+        } finally {
+            //清空引用表并释放对调用方流的引用
+            hessian2Output.free();
+        }
+    }
+
+    @Override
+    public <T> T deserialize(InputStream inputStream, Class<T> clazz) {
+        Hessian2Input hessian2Input = INPUT.get();
+        try {
+            hessian2Input.init(inputStream);
+            Object o = hessian2Input.readObject(clazz);
+            return clazz.cast(o);
+        } catch (Exception e) {
+            throw new SerializeException("Hessian2反序列化失败");
+        } finally {
+            hessian2Input.free();
+        }
+    }
+
+    @Override
+    public void serializeValue(Object value, OutputStream outputStream) {
+        //Hessian2自带类型信息，直接写出值
+        serialize(value, outputStream);
+    }
+
+    @Override
+    public Object deserializeValue(InputStream inputStream) {
+        Hessian2Input hessian2Input = INPUT.get();
+        try {
+            hessian2Input.init(inputStream);
+            //不指定目标类型，按写出时记录的类型还原
+            return hessian2Input.readObject();
+        } catch (Exception e) {
+            throw new SerializeException("Hessian2反序列化失败");
+        } finally {
+            hessian2Input.free();
+        }
+    }
+}
@@ -7,6 +7,8 @@ import github.cloudtour.serialize.Serializer;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * 利用Hessian方式实现序列化--Hessian是一种为面向对象传输而设计的动态类型、二进制序列化和Web服务协议。
@@ -36,4 +38,37 @@ public class HessianSerializer implements Serializer {
             throw new SerializeException("Hessian反序列化失败");
         }
     }
+
+    @Override
+    public void serialize(Object obj, OutputStream outputStream) {
+        try {
+            HessianOutput hessianOutput = new HessianOutput(outputStream);
+            hessianOutput.writeObject(obj);
+            hessianOutput.flush();
+        } catch (Exception e) {
+            throw new SerializeException("Hessian序列化失败");
+        }
+    }
+
+    @Override
+    public <T> T deserialize(InputStream inputStream, Class<T> clazz) {
+        try {
+            HessianInput hessianInput = new HessianInput(inputStream);
+            Object o = hessianInput.readObject();
+            return clazz.cast(o);
+        } catch (Exception e) {
+            throw new SerializeException("Hessian反序列化失败");
+        }
+    }
+
+    @Override
+    public void serializeValue(Object value, OutputStream outputStream) {
+        //Hessian自带类型信息，直接写出值
+        serialize(value, outputStream);
+    }
+
+    @Override
+    public Object deserializeValue(InputStream inputStream) {
+        return deserialize(inputStream, Object.class);
+    }
 }
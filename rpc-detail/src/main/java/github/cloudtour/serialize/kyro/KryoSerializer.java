@@ -1,64 +1,299 @@
 package github.cloudtour.serialize.kyro;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Registration;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+import com.esotericsoftware.kryo.util.MapReferenceResolver;
+import github.cloudtour.enums.RpcConfigEnum;
 import github.cloudtour.exception.SerializeException;
+import github.cloudtour.factory.SingletonFactory;
 import github.cloudtour.serialize.Serializer;
+import github.cloudtour.serialize.ServiceTypeRegistry;
+import github.cloudtour.serialize.ServiceTypeTable;
+import github.cloudtour.transmission.dto.RpcCompactRequest;
+import github.cloudtour.transmission.dto.RpcDictionary;
+import github.cloudtour.transmission.dto.RpcHandshake;
 import github.cloudtour.transmission.dto.RpcRequest;
 import github.cloudtour.transmission.dto.RpcResponse;
-import lombok.extern.slf4j.Slf4j;
+import github.cloudtour.utils.RpcConfigUtil;
+import github.cloudtour.utils.RuntimeUtil;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Kryo序列化方式--Kryo的序列化效率很高，但只兼容Java语言
+ * <p>
+ * Kryo实例创建和类型注册的开销较大，因此连同输入输出缓冲区一起放入有界的对象池中复用。
+ * rpc消息类型和常用的JDK类型按代码中的固定顺序注册，各节点得到完全相同的编号，序列化时只写编号；
+ * 服务接口中的类型各节点收集到的并不相同，按连接握手时服务端给出的{@link ServiceTypeTable}依次注册在固定类型之后，
+ * 同一连接的两端得到相同的编号，编号表之外的类型按类名写出。
+ * 不同编号表的Kryo实例注册的类型不同，因此每个编号表使用单独的对象池
+ *
  * @author cloudtour
  * @version 1.0
  */
-@Slf4j
 public class KryoSerializer implements Serializer {
 
     /**
-     * 使用ThreadLocal来存储Kryo对象,解决Kryo线程安全问题
-     * 对于每一个线程都使用它自己的Kryo对象
+     * 对象池中最多保留的Kryo实例数，通过rpc.serializer.kryo.poolSize配置
      */
-    private final ThreadLocal<Kryo> kryoThreadLocal = ThreadLocal.withInitial(()->{
-        Kryo kryo = new Kryo();
-        kryo.register(RpcRequest.class);
-        kryo.register(RpcResponse.class);
-        return kryo;
-    });
+    private static final int POOL_SIZE = RpcConfigUtil.getInt(RpcConfigEnum.SERIALIZER_KRYO_POOL_SIZE, RuntimeUtil.cpus() * 2);
+    /**
+     * 是否要求所有类型都已注册，开启后只接受预先注册的类型和服务接口中出现的类型，其他类型直接失败，
+     * 通过rpc.serializer.kryo.registrationRequired配置
+     */
+    private static final boolean REGISTRATION_REQUIRED = RpcConfigUtil.getBoolean(RpcConfigEnum.SERIALIZER_KRYO_REGISTRATION_REQUIRED, false);
+    private static final int BUFFER_SIZE = 4096;
+    /**
+     * 最多保留对象池的编号表数，超出后其他编号表的Kryo实例用完即丢弃
+     */
+    private static final int MAX_POOLS = 64;
+    /**
+     * 各节点都会按顺序注册的类型，只能在末尾追加，否则会改变已有类型的编号
+     */
+    private static final Class<?>[] COMMON_TYPES = {
+            RpcRequest.class, RpcResponse.class, RpcCompactRequest.class, RpcHandshake.class, RpcDictionary.class,
+            byte[].class, int[].class, long[].class, Object[].class, String[].class, Class.class, Class[].class,
+            ArrayList.class, LinkedList.class, HashMap.class, LinkedHashMap.class, TreeMap.class, ConcurrentHashMap.class,
+            HashSet.class, LinkedHashSet.class, TreeSet.class, Date.class, BigDecimal.class, BigInteger.class
+    };
+
+    private final ServiceTypeRegistry serviceTypeRegistry = SingletonFactory.getInstance(ServiceTypeRegistry.class);
+    private final Map<ServiceTypeTable, KryoPool> pools = new ConcurrentHashMap<>();
+
+    public KryoSerializer() {
+        //创建时即注册一次，注册表有误时在启动阶段失败
+        KryoPool pool = pool(ServiceTypeTable.EMPTY);
+        pool.release(pool.create());
+    }
 
     @Override
     public byte[] serialize(Object obj) {
-        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-             Output output = new Output(byteArrayOutputStream)){
-            Kryo kryo = kryoThreadLocal.get();
-            //序列化对象
-            kryo.writeObject(output,obj);
-            //删除kryoThreadLocal中对象引用，防止内存泄露
-            kryoThreadLocal.remove();
-            return output.toBytes();
-
-        }catch (Exception e){
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        serialize(obj, byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+        return deserialize(new ByteArrayInputStream(bytes), clazz);
+    }
+
+    @Override
+    public void serialize(Object obj, OutputStream outputStream) {
+        KryoPool pool = pool(ServiceTypeTable.EMPTY);
+        KryoHolder holder = pool.borrow();
+        try {
+            Output output = holder.output;
+            output.setOutputStream(outputStream);
+            //直接序列化到输出流中
+            holder.kryo.writeObject(output, obj);
+            output.flush();
+        } catch (Exception e) {
             throw new SerializeException("Kryo序列化失败");
+        } finally {
+            pool.release(holder);
         }
     }
 
     @Override
-    public <T> T deserialize(byte[] bytes, Class<T> clazz) {
-        try(ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-            Input input = new Input(byteArrayInputStream)) {
-            Kryo kryo = kryoThreadLocal.get();
-            //反序列化获得对象
-            Object o = kryo.readObject(input,clazz);
-            //防止内存泄露
-            kryoThreadLocal.remove();
+    public <T> T deserialize(InputStream inputStream, Class<T> clazz) {
+        KryoPool pool = pool(ServiceTypeTable.EMPTY);
+        KryoHolder holder = pool.borrow();
+        try {
+            Input input = holder.input;
+            input.setInputStream(inputStream);
+            Object o = holder.kryo.readObject(input, clazz);
             return clazz.cast(o);
-        }catch (Exception e){
+        } catch (Exception e) {
+            throw new SerializeException("Kryo反序列化失败");
+        } finally {
+            pool.release(holder);
+        }
+    }
+
+    @Override
+    public void serializeValue(Object value, OutputStream outputStream) {
+        serializeValue(value, outputStream, ServiceTypeTable.EMPTY);
+    }
+
+    @Override
+    public Object deserializeValue(InputStream inputStream) {
+        return deserializeValue(inputStream, ServiceTypeTable.EMPTY);
+    }
+
+    @Override
+    public void serializeValue(Object value, OutputStream outputStream, ServiceTypeTable typeTable) {
+        KryoPool pool = pool(typeTable);
+        KryoHolder holder = pool.borrow();
+        try {
+            Output output = holder.output;
+            output.setOutputStream(outputStream);
+            //值的类型未知，连同类型编号一起写出
+            holder.kryo.writeClassAndObject(output, value);
+            output.flush();
+        } catch (Exception e) {
+            throw new SerializeException("Kryo序列化失败");
+        } finally {
+            pool.release(holder);
+        }
+    }
+
+    @Override
+    public Object deserializeValue(InputStream inputStream, ServiceTypeTable typeTable) {
+        KryoPool pool = pool(typeTable);
+        KryoHolder holder = pool.borrow();
+        try {
+            Input input = holder.input;
+            input.setInputStream(inputStream);
+            return holder.kryo.readClassAndObject(input);
+        } catch (Exception e) {
             throw new SerializeException("Kryo反序列化失败");
+        } finally {
+            pool.release(holder);
+        }
+    }
+
+    /**
+     * 获取编号表对应的对象池
+     * @param typeTable 服务类型编号表，为null时使用空编号表
+     * @return github.cloudtour.serialize.kyro.KryoSerializer.KryoPool
+     **/
+    private KryoPool pool(ServiceTypeTable typeTable) {
+        ServiceTypeTable table = typeTable == null ? ServiceTypeTable.EMPTY : typeTable;
+        KryoPool pool = pools.get(table);
+        if (pool != null) {
+            return pool;
+        }
+        if (pools.size() >= MAX_POOLS) {
+            return new KryoPool(table);
+        }
+        return pools.computeIfAbsent(table, KryoPool::new);
+    }
+
+    /**
+     * 一个编号表的Kryo实例池
+     **/
+    private final class KryoPool {
+        private final ServiceTypeTable typeTable;
+        private final Queue<KryoHolder> holders = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pooled = new AtomicInteger();
+
+        private KryoPool(ServiceTypeTable typeTable) {
+            this.typeTable = typeTable;
+        }
+
+        /**
+         * 从对象池中取出Kryo实例，池为空或实例缺少之后才收集到的服务类型时新建
+         * @return github.cloudtour.serialize.kyro.KryoSerializer.KryoHolder
+         **/
+        private KryoHolder borrow() {
+            KryoHolder holder = holders.poll();
+            if (holder != null) {
+                pooled.decrementAndGet();
+                if (holder.registeredTypes < 0 || holder.registeredTypes == serviceTypeRegistry.getTypes().size()) {
+                    return holder;
+                }
+            }
+            return create();
+        }
+
+        /**
+         * 归还Kryo实例，池已满时丢弃
+         * @param holder Kryo实例
+         **/
+        private void release(KryoHolder holder) {
+            //不再引用调用方的流
+            holder.output.setOutputStream(null);
+            holder.input.setInputStream(null);
+            if (pooled.incrementAndGet() <= POOL_SIZE) {
+                holders.offer(holder);
+            } else {
+                pooled.decrementAndGet();
+            }
+        }
+
+        private KryoHolder create() {
+            //先读取已收集的类型数，之后收集到的类型会使该实例在下次借出时重建
+            int registeredTypes = serviceTypeRegistry.getTypes().size();
+            //由类型解析器按服务类型检查隐式注册，Kryo自身不再检查
+            Kryo kryo = new Kryo(new ServiceTypeClassResolver(), new MapReferenceResolver());
+            kryo.setRegistrationRequired(false);
+            for (Class<?> type : COMMON_TYPES) {
+                if (kryo.getClassResolver().getRegistration(type) != null) {
+                    throw new IllegalStateException("类型[" + type.getName() + "]重复注册");
+                }
+                kryo.register(type);
+            }
+            //服务类型按编号表中的位置注册，本地没有的类型空出编号，双方的编号保持一致
+            boolean complete = true;
+            int base = kryo.getNextRegistrationId();
+            for (int i = 0; i < typeTable.size(); i++) {
+                Class<?> type = serviceTypeRegistry.getType(typeTable.getNames().get(i));
+                if (type == null) {
+                    complete = false;
+                } else if (kryo.getClassResolver().getRegistration(type) == null) {
+                    kryo.register(type, base + i);
+                }
+            }
+            return new KryoHolder(kryo, complete ? -1 : registeredTypes);
+        }
+    }
+
+    /**
+     * 未注册类型的解析器：开启注册检查时只允许服务接口中出现的类型按类名写出和读取
+     **/
+    private final class ServiceTypeClassResolver extends DefaultClassResolver {
+        @Override
+        public Registration registerImplicit(Class type) {
+            Class<?> elementType = type;
+            while (elementType.isArray()) {
+                elementType = elementType.getComponentType();
+            }
+            if (REGISTRATION_REQUIRED && !elementType.isPrimitive() && getRegistration(elementType) == null
+                    && !serviceTypeRegistry.contains(elementType)) {
+                throw new IllegalArgumentException("类型未注册: " + type.getName());
+            }
+            return super.registerImplicit(type);
+        }
+    }
+
+    /**
+     * 池中的Kryo实例及其复用的输入输出缓冲区
+     **/
+    private static final class KryoHolder {
+        private final Kryo kryo;
+        /**
+         * 编号表中有本地未收集的类型时，创建实例时已收集的类型数；编号表中的类型都已注册时为-1
+         */
+        private final int registeredTypes;
+        private final Output output = new Output(BUFFER_SIZE, -1);
+        private final Input input = new Input(BUFFER_SIZE);
+
+        private KryoHolder(Kryo kryo, int registeredTypes) {
+            this.kryo = kryo;
+            this.registeredTypes = registeredTypes;
         }
     }
 }
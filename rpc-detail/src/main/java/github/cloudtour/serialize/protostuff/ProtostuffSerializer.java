@@ -1,42 +1,144 @@
 package github.cloudtour.serialize.protostuff;
 
+import github.cloudtour.exception.SerializeException;
+import github.cloudtour.factory.SingletonFactory;
+import github.cloudtour.serialize.SerializedValue;
 import github.cloudtour.serialize.Serializer;
+import github.cloudtour.serialize.ServiceTypeRegistry;
+import github.cloudtour.transmission.dto.RpcCompactRequest;
+import github.cloudtour.transmission.dto.RpcDictionary;
+import github.cloudtour.transmission.dto.RpcHandshake;
+import github.cloudtour.transmission.dto.RpcRequest;
+import github.cloudtour.transmission.dto.RpcResponse;
+import io.netty.util.concurrent.FastThreadLocal;
 import io.protostuff.LinkedBuffer;
 import io.protostuff.ProtostuffIOUtil;
 import io.protostuff.Schema;
 import io.protostuff.runtime.RuntimeSchema;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
 /**
  * Protostuff形式序列化
+ * <p>
+ * 每个线程使用自己的LinkedBuffer，编码可以在多个事件循环上并发进行；
+ * 类架构按类型缓存，rpc消息类型和服务接口中出现的类型预先生成
+ *
  * @author cloudtour
  * @version 1.0
  */
 public class ProtostuffSerializer implements Serializer {
 
     /**
-     * 缓冲区空间--序列化时使用
+     * 缓冲区空间--每个线程一个，write用于序列化，read用于从输入流反序列化
+     */
+    private static final FastThreadLocal<LinkedBuffer> WRITE_BUFFER = new FastThreadLocal<LinkedBuffer>() {
+        @Override
+        protected LinkedBuffer initialValue() {
+            return LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        }
+    };
+    private static final FastThreadLocal<LinkedBuffer> READ_BUFFER = new FastThreadLocal<LinkedBuffer>() {
+        @Override
+        protected LinkedBuffer initialValue() {
+            return LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * 类架构缓存
+     */
+    private static final ClassValue<Schema<?>> SCHEMAS = new ClassValue<Schema<?>>() {
+        @Override
+        protected Schema<?> computeValue(Class<?> type) {
+            return RuntimeSchema.getSchema(type);
+        }
+    };
+
+    static {
+        SCHEMAS.get(RpcRequest.class);
+        SCHEMAS.get(RpcResponse.class);
+        SCHEMAS.get(RpcCompactRequest.class);
+        SCHEMAS.get(RpcHandshake.class);
+        SCHEMAS.get(RpcDictionary.class);
+        SCHEMAS.get(SerializedValue.class);
+    }
+
+    private final ServiceTypeRegistry serviceTypeRegistry = SingletonFactory.getInstance(ServiceTypeRegistry.class);
+
+    /**
+     * 已预先生成类架构的服务类型数
      */
-    private static final LinkedBuffer BUFFER = LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+    private volatile int preparedServiceTypes;
 
     @Override
     public byte[] serialize(Object obj) {
-        Class<?> clazz = obj.getClass();
-        //获取类架构
-        Schema schema = RuntimeSchema.getSchema(clazz);
-        byte[] bytes;
+        Schema<Object> schema = schema(obj.getClass());
+        LinkedBuffer buffer = WRITE_BUFFER.get();
         try {
-            bytes = ProtostuffIOUtil.toByteArray(obj, schema, BUFFER);
+            return ProtostuffIOUtil.toByteArray(obj, schema, buffer);
         } finally {
-            BUFFER.clear();
+            buffer.clear();
         }
-        return bytes;
     }
 
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> clazz) {
-        Schema<T> schema = RuntimeSchema.getSchema(clazz);
+        Schema<T> schema = schema(clazz);
         T obj = schema.newMessage();
         ProtostuffIOUtil.mergeFrom(bytes, obj, schema);
         return obj;
     }
+
+    @Override
+    public void serialize(Object obj, OutputStream outputStream) {
+        Schema<Object> schema = schema(obj.getClass());
+        LinkedBuffer buffer = WRITE_BUFFER.get();
+        try {
+            ProtostuffIOUtil.writeTo(outputStream, obj, schema, buffer);
+        } catch (IOException e) {
+            throw new SerializeException("Protostuff序列化失败");
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public <T> T deserialize(InputStream inputStream, Class<T> clazz) {
+        Schema<T> schema = schema(clazz);
+        T obj = schema.newMessage();
+        LinkedBuffer buffer = READ_BUFFER.get();
+        try {
+            //使用线程的缓冲区作为读取缓冲区，不再为每条消息分配
+            ProtostuffIOUtil.mergeFrom(inputStream, obj, schema, buffer);
+        } catch (IOException e) {
+            throw new SerializeException("Protostuff反序列化失败");
+        } finally {
+            buffer.clear();
+        }
+        return obj;
+    }
+
+    /**
+     * 获取类型的类架构，服务接口有新类型时先为其生成类架构
+     * @param clazz 类型
+     * @return io.protostuff.Schema<T>
+     **/
+    @SuppressWarnings("unchecked")
+    private <T> Schema<T> schema(Class<?> clazz) {
+        List<Class<?>> serviceTypes = serviceTypeRegistry.getTypes();
+        if (preparedServiceTypes != serviceTypes.size()) {
+            for (Class<?> type : serviceTypes) {
+                //数组和JDK类型作为字段出现，不单独生成类架构
+                if (!type.isArray() && !type.getName().startsWith("java.")) {
+                    SCHEMAS.get(type);
+                }
+            }
+            preparedServiceTypes = serviceTypes.size();
+        }
+        return (Schema<T>) SCHEMAS.get(clazz);
+    }
 }
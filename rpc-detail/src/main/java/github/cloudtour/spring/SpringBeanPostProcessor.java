@@ -49,6 +49,9 @@ public class SpringBeanPostProcessor implements BeanPostProcessor {
             RpcServiceConfig rpcServiceConfig = RpcServiceConfig.builder()
                     .group(rpcService.group())
                     .version(rpcService.version())
+                    .maxConcurrency(rpcService.maxConcurrency())
+                    .serializer(rpcService.serializer())
+                    .compress(rpcService.compress())
                     .service(bean).build();
             //将服务进行发布
             serviceProvider.publishService(rpcServiceConfig);
@@ -70,7 +73,10 @@ public class SpringBeanPostProcessor implements BeanPostProcessor {
             if (rpcReference != null) {
                 RpcServiceConfig rpcServiceConfig = RpcServiceConfig.builder()
                         .group(rpcReference.group())
-                        .version(rpcReference.version()).build();
+                        .version(rpcReference.version())
+                        .timeout(rpcReference.timeout())
+                        .serializer(rpcReference.serializer())
+                        .compress(rpcReference.compress()).build();
                 RpcClientProxy rpcClientProxy = new RpcClientProxy(rpcClient, rpcServiceConfig);
                 Object clientProxy = rpcClientProxy.getProxy(declaredField.getType());
                 declaredField.setAccessible(true);
@@ -20,11 +20,11 @@ public class RpcConstants {
     /**
      * 版本信息
      */
-    public static final byte VERSION = 1;
+    public static final byte VERSION = 3;
     /**
      * 消息最少总体长度
      */
-    public static final byte TOTAL_LENGTH = 16;
+    public static final byte TOTAL_LENGTH = 20;
     /**
      * 消息请求类型
      */
@@ -41,10 +41,30 @@ public class RpcConstants {
      * 心跳响应类型
      */
     public static final byte HEARTBEAT_RESPONSE_TYPE = 4;
+    /**
+     * 握手请求类型
+     */
+    public static final byte HANDSHAKE_REQUEST_TYPE = 5;
+    /**
+     * 握手响应类型
+     */
+    public static final byte HANDSHAKE_RESPONSE_TYPE = 6;
+    /**
+     * 使用方法编号的精简请求类型
+     */
+    public static final byte COMPACT_REQUEST_TYPE = 7;
+    /**
+     * 压缩字典类型
+     */
+    public static final byte DICTIONARY_TYPE = 8;
+    /**
+     * 正文未压缩标志--头部压缩类型字段的最高位，置位时正文未压缩，低7位仍为发送方请求的压缩类型
+     */
+    public static final byte UNCOMPRESSED_FLAG = (byte) 0x80;
     /**
      * 头部长度
      */
-    public static final int HEAD_LENGTH = 16;
+    public static final int HEAD_LENGTH = 20;
 
     /**
      * 一条数据的最大长度
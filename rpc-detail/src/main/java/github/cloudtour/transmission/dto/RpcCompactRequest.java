@@ -0,0 +1,27 @@
+package github.cloudtour.transmission.dto;
+
+import lombok.*;
+
+import java.io.Serializable;
+
+/**
+ * 精简的Rpc请求类型--用握手时服务端分配的方法编号代替接口名、方法名、参数类型、版本和组
+ * @author cloudtour
+ * @version 1.0
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Builder
+@ToString
+public class RpcCompactRequest implements Serializable {
+    private static final long serialVersionUID = -6413190519726503926L;
+    /**
+     * 方法编号
+     */
+    private int methodId;
+    /**
+     * 方法参数
+     */
+    private Object[] parameters;
+}
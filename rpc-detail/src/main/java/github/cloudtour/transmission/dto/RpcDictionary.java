@@ -0,0 +1,30 @@
+package github.cloudtour.transmission.dto;
+
+import lombok.*;
+
+import java.io.Serializable;
+
+/**
+ * 压缩字典消息，发送方在首次使用某个字典压缩前先将字典发送给对方
+ * @author cloudtour
+ * @version 1.0
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@ToString(exclude = "content")
+public class RpcDictionary implements Serializable {
+    private static final long serialVersionUID = 6207315642315925123L;
+    /**
+     * 字典所属的服务名称
+     */
+    private String rpcServiceName;
+    /**
+     * 字典编号
+     */
+    private int id;
+    /**
+     * 字典内容
+     */
+    private byte[] content;
+}
@@ -0,0 +1,55 @@
+package github.cloudtour.transmission.dto;
+
+import lombok.*;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 连接握手消息--客户端建立连接后发送握手请求，声明支持的序列化方式和压缩方式；
+ * 服务端在握手响应中返回协商结果和导出方法的编号
+ * @author cloudtour
+ * @version 1.0
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Builder
+@ToString
+public class RpcHandshake implements Serializable {
+    private static final long serialVersionUID = 3526870143870372841L;
+    /**
+     * key: 方法标识(服务名称#方法名称(参数类型))，value: 服务端分配的方法编号，仅握手响应中使用
+     */
+    private Map<String, Integer> methodIds;
+    /**
+     * 客户端支持的序列化编码，按偏好顺序排列，仅握手请求中使用
+     */
+    private byte[] serializers;
+    /**
+     * 客户端支持的压缩编码，按偏好顺序排列，仅握手请求中使用
+     */
+    private byte[] compressors;
+    /**
+     * 协商出的序列化编码，该连接之后的请求均使用它，仅握手响应中使用
+     */
+    private byte serializer;
+    /**
+     * 协商出的压缩编码，该连接之后的请求均使用它，仅握手响应中使用
+     */
+    private byte compress;
+    /**
+     * key: 服务名称，value: 服务端为该服务指定的序列化编码，仅握手响应中使用
+     */
+    private Map<String, Integer> serviceSerializers;
+    /**
+     * key: 服务名称，value: 服务端为该服务指定的压缩编码，仅握手响应中使用
+     */
+    private Map<String, Integer> serviceCompressors;
+    /**
+     * 服务端已收集的服务类型名称，按编号顺序排列，双方按该顺序为这些类型分配序列化编号，仅握手响应中使用
+     */
+    private List<String> serviceTypes;
+}
@@ -23,13 +23,22 @@ public class RpcMessage {
      */
     private byte codec;
     /**
-     * 压缩类型
+     * 请求的压缩类型，正文较小或不可压缩时编码器不压缩，只在头部标记，该字段不变
      */
     private byte compress;
     /**
-     * request id
+     * 请求id，由客户端按连接分配，响应原样带回
      */
     private int requestId;
+    /**
+     * 截止时间(System.nanoTime()时基的本地时间)，0表示没有截止时间。
+     * 编码时换算为剩余毫秒数写入头部，解码时按收到帧的时刻换算回本地截止时间
+     */
+    private long deadline;
+    /**
+     * 消息所属方法的标识，仅用于按方法统计压缩效果，不写入帧
+     */
+    private String methodKey;
     /**
      * 具体消息数据
      */
@@ -1,5 +1,7 @@
 package github.cloudtour.transmission.dto;
 
+import github.cloudtour.enums.CompressTypeEnum;
+import github.cloudtour.enums.SerializationTypeEnum;
 import lombok.*;
 
 import java.io.Serializable;
@@ -16,10 +18,6 @@ import java.io.Serializable;
 @ToString
 public class RpcRequest implements Serializable {
     private static final long serialVersionUID = 1905122041950251207L;
-    /**
-     * request id
-     */
-    private String requestId;
     /**
      * 接口名称
      */
@@ -44,12 +42,66 @@ public class RpcRequest implements Serializable {
      * 所在组
      */
     private String group;
+    /**
+     * 调用超时时间(毫秒)，仅客户端使用，不参与序列化
+     */
+    private transient long timeout;
+    /**
+     * 远程请求服务名称，客户端由请求模板预先生成，服务端首次获取时计算，不参与序列化
+     */
+    private transient String rpcServiceName;
+    /**
+     * 方法标识，用于在握手得到的方法编号表中查找，不参与序列化
+     */
+    private transient String methodKey;
+    /**
+     * 该服务指定的序列化方式，为null时不指定，仅客户端使用，不参与序列化
+     */
+    private transient SerializationTypeEnum serializer;
+    /**
+     * 该服务指定的压缩方式，为null时不指定，仅客户端使用，不参与序列化
+     */
+    private transient CompressTypeEnum compress;
 
     /**
      * 获取远程请求服务名称
      * @return java.lang.String
      **/
     public String getRpcServiceName() {
-        return this.getInterfaceName() + this.getGroup() + this.getVersion();
+        if (rpcServiceName == null) {
+            rpcServiceName = this.getInterfaceName() + this.getGroup() + this.getVersion();
+        }
+        return rpcServiceName;
+    }
+
+    /**
+     * 获取方法标识
+     * @return java.lang.String
+     **/
+    public String getMethodKey() {
+        if (methodKey == null) {
+            methodKey = methodKey(getRpcServiceName(), methodName, paramTypes);
+        }
+        return methodKey;
+    }
+
+    /**
+     * 生成方法标识：服务名称#方法名称(参数类型,...)，客户端和服务端使用相同的格式
+     * @param rpcServiceName 服务名称
+     * @param methodName     方法名称
+     * @param paramTypes     参数类型
+     * @return java.lang.String
+     **/
+    public static String methodKey(String rpcServiceName, String methodName, Class<?>[] paramTypes) {
+        StringBuilder sb = new StringBuilder(rpcServiceName).append('#').append(methodName).append('(');
+        if (paramTypes != null) {
+            for (int i = 0; i < paramTypes.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(paramTypes[i].getName());
+            }
+        }
+        return sb.append(')').toString();
     }
 }
@@ -19,7 +19,6 @@ import java.io.Serializable;
 public class RpcResponse<T> implements Serializable {
     private static final long serialVersionUID = 715745410605631233L;
 
-    private String requestId;
     /**
      * 响应编码
      */
@@ -36,14 +35,12 @@ public class RpcResponse<T> implements Serializable {
     /**
      * 构建成功响应类
      * @param data  成功响应数据体
-     * @param requestId  请求id
      * @return github.cloudtour.transmission.dto.RpcResponse<T>
      **/
-    public static <T> RpcResponse<T> success(T data, String requestId) {
+    public static <T> RpcResponse<T> success(T data) {
         RpcResponse<T> response = new RpcResponse<>();
         response.setCode(RpcResponseCodeEnum.SUCCESS.getCode());
         response.setMessage(RpcResponseCodeEnum.SUCCESS.getMessage());
-        response.setRequestId(requestId);
         if (null != data) {
             response.setData(data);
         }
@@ -1,14 +1,18 @@
 package github.cloudtour.transmission.handler;
 
+import github.cloudtour.enums.RpcErrorMessageEnum;
 import github.cloudtour.exception.RpcException;
 import github.cloudtour.factory.SingletonFactory;
+import github.cloudtour.provider.MethodInvoker;
 import github.cloudtour.provider.ServiceProvider;
 import github.cloudtour.provider.impl.ZkServiceProviderImpl;
+import github.cloudtour.transmission.dto.RpcCompactRequest;
 import github.cloudtour.transmission.dto.RpcRequest;
 import lombok.extern.slf4j.Slf4j;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 
 /**
  * 远程请求处理器--服务端使用，用于调用rpc请求中的目标类的目标方法
@@ -28,30 +32,87 @@ public class RpcRequestHandler {
     }
 
     /**
-     * 处理rpcRequest：调用rpc请求中相应的方法，然后返回该方法的返回值
+     * 处理rpcRequest：调用rpc请求中相应的方法，返回在方法结果可用时完成的future
+     * <p>
+     * 方法返回CompletionStage时直接返回该异步结果，不占用当前线程等待；否则返回已完成的future
      * @param rpcRequest rpc请求
-     * @return java.lang.Object 调用方法的结果
+     * @return java.util.concurrent.CompletableFuture<java.lang.Object> 调用方法的结果
      **/
-    public Object handle(RpcRequest rpcRequest) {
-        Object service = serviceProvider.getService(rpcRequest.getRpcServiceName());
-        return invokeTargetMethod(rpcRequest, service);
+    public CompletableFuture<Object> handle(RpcRequest rpcRequest) {
+        return toFuture(() -> invokeTargetMethod(rpcRequest));
     }
 
     /**
-     * 利用反射获取方法执行结果
+     * 处理精简请求：按握手时分配的方法编号找到调用器并调用
+     * @param rpcCompactRequest 精简的rpc请求
+     * @return java.util.concurrent.CompletableFuture<java.lang.Object> 调用方法的结果
+     **/
+    public CompletableFuture<Object> handle(RpcCompactRequest rpcCompactRequest) {
+        return toFuture(() -> {
+            MethodInvoker invoker = serviceProvider.getMethodInvoker(rpcCompactRequest.getMethodId());
+            if (invoker == null) {
+                throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_BE_FOUND, "methodId:" + rpcCompactRequest.getMethodId());
+            }
+            Object result = invoke(invoker, rpcCompactRequest.getParameters());
+            log.debug("服务:[{}] ->成功调用方法:[{}]", invoker.getRpcServiceName(), invoker.getMethodKey());
+            return result;
+        });
+    }
+
+    /**
+     * 执行调用并将结果转换为future：方法返回CompletionStage时直接使用该异步结果
+     * @param invocation 调用
+     * @return java.util.concurrent.CompletableFuture<java.lang.Object>
+     **/
+    @SuppressWarnings("unchecked")
+    private static CompletableFuture<Object> toFuture(Supplier<Object> invocation) {
+        Object result;
+        try {
+            result = invocation.get();
+        } catch (RuntimeException e) {
+            CompletableFuture<Object> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        if (result instanceof CompletionStage) {
+            return ((CompletionStage<Object>) result).toCompletableFuture();
+        }
+        return CompletableFuture.completedFuture(result);
+    }
+
+    /**
+     * 获取方法执行结果：使用发布服务时生成的方法调用器，服务接口中没有的方法或无法解析的参数类型直接拒绝
      * @param rpcRequest    客户端发过来的rpc请求
-     * @param service       rpc请求中对应的服务类
      * @return java.lang.Object     目标方法执行的结果
      **/
-    private Object invokeTargetMethod(RpcRequest rpcRequest, Object service) {
-        Object result;
+    private Object invokeTargetMethod(RpcRequest rpcRequest) {
+        String rpcServiceName = rpcRequest.getRpcServiceName();
+        Class<?>[] paramTypes = rpcRequest.getParamTypes();
+        MethodInvoker invoker = paramTypes == null ? null
+                : serviceProvider.getMethodInvoker(rpcServiceName, rpcRequest.getMethodName(), paramTypes);
+        if (invoker == null) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_BE_FOUND,
+                    rpcServiceName + "#" + rpcRequest.getMethodName());
+        }
+        Object result = invoke(invoker, rpcRequest.getParameters());
+        log.debug("服务:[{}] ->成功调用方法:[{}]", rpcRequest.getInterfaceName(), rpcRequest.getMethodName());
+        return result;
+    }
+
+    /**
+     * 通过方法调用器执行目标方法
+     * @param invoker       方法调用器
+     * @param parameters    方法参数
+     * @return java.lang.Object     目标方法执行的结果
+     **/
+    private static Object invoke(MethodInvoker invoker, Object[] parameters) {
         try {
-            Method method = service.getClass().getMethod(rpcRequest.getMethodName(), rpcRequest.getParamTypes());
-            result = method.invoke(service, rpcRequest.getParameters());
-            log.info("服务:[{}] ->成功调用方法:[{}]", rpcRequest.getInterfaceName(), rpcRequest.getMethodName());
-        } catch (NoSuchMethodException | IllegalArgumentException | InvocationTargetException | IllegalAccessException e) {
+            return invoker.invoke(parameters);
+        } catch (Throwable e) {
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
             throw new RpcException(e.getMessage(), e);
         }
-        return result;
     }
 }
@@ -0,0 +1,99 @@
+package github.cloudtour.transmission.transport.netty;
+
+import github.cloudtour.enums.FlushModeEnum;
+import github.cloudtour.enums.RpcConfigEnum;
+import github.cloudtour.utils.RpcConfigUtil;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 客户端与服务端共用的Netty传输层配置
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+@Slf4j
+public final class NettyTransportUtil {
+
+    /**
+     * 通道刷新模式，通过rpc.transport.flush.mode配置，默认延迟优先
+     */
+    private static final FlushModeEnum FLUSH_MODE = FlushModeEnum.getByName(
+            RpcConfigUtil.getString(RpcConfigEnum.TRANSPORT_FLUSH_MODE, FlushModeEnum.LATENCY.getName()));
+    /**
+     * 吞吐优先模式下，累计多少次刷新后强制刷新一次
+     */
+    private static final int EXPLICIT_FLUSH_AFTER_FLUSHES = RpcConfigUtil.getInt(RpcConfigEnum.TRANSPORT_FLUSH_MAX_PENDING, 256);
+
+    /**
+     * 是否使用epoll传输：在Linux上且本地库可用时默认启用，可通过rpc.transport.native.enabled=false回退到NIO
+     */
+    private static final boolean USE_EPOLL = RpcConfigUtil.getBoolean(RpcConfigEnum.TRANSPORT_NATIVE_ENABLED, true) && Epoll.isAvailable();
+
+    static {
+        log.info("Netty传输方式: [{}]", USE_EPOLL ? "epoll" : "nio");
+    }
+
+    private NettyTransportUtil() {
+    }
+
+    /**
+     * 是否使用epoll传输
+     * @return boolean
+     **/
+    public static boolean isEpoll() {
+        return USE_EPOLL;
+    }
+
+    /**
+     * 按传输方式创建事件循环组，epoll默认为边缘触发模式
+     * @param nThreads      线程数，0表示使用Netty默认值
+     * @param threadFactory 线程工厂，为null时使用Netty默认值
+     * @return io.netty.channel.EventLoopGroup
+     **/
+    public static EventLoopGroup newEventLoopGroup(int nThreads, ThreadFactory threadFactory) {
+        return USE_EPOLL ? new EpollEventLoopGroup(nThreads, threadFactory) : new NioEventLoopGroup(nThreads, threadFactory);
+    }
+
+    /**
+     * 客户端通道类型
+     * @return java.lang.Class<? extends io.netty.channel.socket.SocketChannel>
+     **/
+    public static Class<? extends SocketChannel> socketChannelClass() {
+        return USE_EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    /**
+     * 服务端通道类型
+     * @return java.lang.Class<? extends io.netty.channel.socket.ServerSocketChannel>
+     **/
+    public static Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+        return USE_EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * 按刷新模式配置管道，需在其他处理器之前调用
+     * <p>
+     * 吞吐优先时在管道头部加入{@link FlushConsolidationHandler}：事件循环中排队的多条消息只在
+     * 读取完成或本轮任务执行完后刷新一次，多个帧合并为一次系统调用写出
+     * @param pipeline 通道管道
+     **/
+    public static void configureFlushMode(ChannelPipeline pipeline) {
+        if (FLUSH_MODE == FlushModeEnum.THROUGHPUT) {
+            pipeline.addLast(new FlushConsolidationHandler(EXPLICIT_FLUSH_AFTER_FLUSHES, true));
+        }
+    }
+}
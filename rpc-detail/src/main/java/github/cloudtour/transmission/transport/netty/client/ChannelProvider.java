@@ -1,58 +1,161 @@
 package github.cloudtour.transmission.transport.netty.client;
 
+import github.cloudtour.enums.RpcConfigEnum;
+import github.cloudtour.utils.RpcConfigUtil;
 import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
- * 存储和获取通道对象
+ * 存储和获取通道对象--每个服务地址维护一个连接池
+ * <p>
+ * 获取通道时选择未完成请求数最少的连接；连接池未达到最小连接数，或所有连接的负载都超过阈值时扩容，
+ * 超过最小连接数的空闲连接会被回收。连接池大小的判断和修改都在该地址连接池的锁内进行，
+ * 回收时先标记通道再检查未完成请求数，发送方放入请求后检查该标记，被回收的通道上的请求改由其他连接发送
  *
  * @author cloudtour
  * @version 1.0
  */
 @Slf4j
 public class ChannelProvider {
-    private final Map<String, Channel>  channelMap;
+    /**
+     * 每个地址的最小连接数
+     */
+    private static final int MIN_CONNECTIONS = Math.max(1, RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_POOL_MIN_CONNECTIONS, 1));
+    /**
+     * 每个地址的最大连接数
+     */
+    private static final int MAX_CONNECTIONS = Math.max(MIN_CONNECTIONS, RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_POOL_MAX_CONNECTIONS, 4));
+    /**
+     * 单个连接上的未完成请求数达到该值时视为繁忙，需要扩容
+     */
+    private static final int GROW_THRESHOLD = RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_POOL_GROW_THRESHOLD, 64);
+
+    /**
+     * 通道所属连接池的key
+     */
+    private static final AttributeKey<String> POOL_KEY = AttributeKey.valueOf("channelPoolKey");
+    /**
+     * 通道已被回收的标记
+     */
+    private static final AttributeKey<Boolean> RETIRED_KEY = AttributeKey.valueOf("channelRetired");
+
+    private final Map<String, List<Channel>>  channelMap;
 
     public ChannelProvider() {
         channelMap = new ConcurrentHashMap<>();
     }
 
     /**
-     * 根据地址获取通道对象
+     * 根据地址获取未完成请求数最少的可用通道
      * @param inetSocketAddress 地址
-     * @return io.netty.channel.Channel 通道对象
+     * @return io.netty.channel.Channel 通道对象，没有可用连接时返回null
      **/
     public Channel get(InetSocketAddress inetSocketAddress) {
-        String key = inetSocketAddress.toString();
-        //确定是否存在对应地址的连接
-        if (channelMap.containsKey(key)){
-            Channel channel = channelMap.get(key);
-            //确定连接是否可用，如果可用，则直接获取连接
-            if (channel !=null && channel.isActive()){
-                return channel;
-            }else {
-                channelMap.remove(key);
+        List<Channel> channels = channelMap.get(inetSocketAddress.toString());
+        if (channels == null) {
+            return null;
+        }
+        Channel leastLoaded = null;
+        int leastInFlight = Integer.MAX_VALUE;
+        for (Channel channel : channels) {
+            //确定连接是否可用，不可用则从连接池中移除
+            if (!channel.isActive()) {
+                channels.remove(channel);
+                continue;
+            }
+            int inFlight = inFlight(channel);
+            if (inFlight < leastInFlight) {
+                leastInFlight = inFlight;
+                leastLoaded = channel;
             }
         }
-        return null;
+        return leastLoaded;
     }
 
     /**
-     * 将管道存储数据存储进缓存中
+     * 判断是否需要为该地址新建连接
+     * @param inetSocketAddress 地址
+     * @param leastLoaded       get方法选出的通道
+     * @return boolean
+     **/
+    public boolean needGrow(InetSocketAddress inetSocketAddress, Channel leastLoaded) {
+        if (leastLoaded == null) {
+            return true;
+        }
+        List<Channel> channels = channelMap.get(inetSocketAddress.toString());
+        if (channels == null) {
+            return true;
+        }
+        synchronized (channels) {
+            int size = channels.size();
+            return size < MIN_CONNECTIONS || (size < MAX_CONNECTIONS && inFlight(leastLoaded) >= GROW_THRESHOLD);
+        }
+    }
+
+    /**
+     * 将通道加入对应地址的连接池，通道关闭后自动移除；连接池已达到最大连接数时不加入
      * @param inetSocketAddress 地址
      * @param channel 管道
+     * @return boolean 是否已加入，未加入时由调用方关闭通道
      **/
-    public void set(InetSocketAddress inetSocketAddress, Channel channel) {
+    public boolean set(InetSocketAddress inetSocketAddress, Channel channel) {
         String key = inetSocketAddress.toString();
-        channelMap.put(key, channel);
+        List<Channel> channels = channelMap.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>());
+        synchronized (channels) {
+            channels.removeIf(c -> !c.isActive());
+            if (channels.size() >= MAX_CONNECTIONS) {
+                return false;
+            }
+            channel.attr(POOL_KEY).set(key);
+            channels.add(channel);
+        }
+        channel.closeFuture().addListener(future -> channels.remove(channel));
+        return true;
     }
 
     /**
-     * 删除管道
+     * 尝试回收空闲通道：连接池超过最小连接数且该通道上没有未完成的请求时，将其从连接池中移除
+     * @param channel 空闲的通道
+     * @return boolean 是否已移除，移除后由调用方关闭通道
+     **/
+    public boolean tryRetire(Channel channel) {
+        String key = channel.attr(POOL_KEY).get();
+        List<Channel> channels = key == null ? null : channelMap.get(key);
+        if (channels == null) {
+            return false;
+        }
+        synchronized (channels) {
+            if (channels.size() <= MIN_CONNECTIONS || !channels.contains(channel)) {
+                return false;
+            }
+            //先标记再检查未完成请求数，与发送方先放入请求再检查标记相对应，两者至少有一方能看到对方
+            channel.attr(RETIRED_KEY).set(Boolean.TRUE);
+            if (inFlight(channel) == 0) {
+                return channels.remove(channel);
+            }
+            channel.attr(RETIRED_KEY).set(null);
+        }
+        return false;
+    }
+
+    /**
+     * 通道是否已被回收：发送方在通道上放入请求后调用，返回true时该请求需改由其他连接发送
+     * @param channel 通道
+     * @return boolean
+     **/
+    public boolean isRetired(Channel channel) {
+        return channel.attr(RETIRED_KEY).get() != null;
+    }
+
+    /**
+     * 删除地址对应的整个连接池
      * @param inetSocketAddress 想要删除的管道对应的路径
      **/
     public void remove(InetSocketAddress inetSocketAddress) {
@@ -60,4 +163,22 @@ public class ChannelProvider {
         channelMap.remove(key);
         log.info("存储管道容器的大小 :[{}]", channelMap.size());
     }
+
+    /**
+     * 获取地址对应连接池的大小
+     * @param inetSocketAddress 地址
+     * @return int
+     **/
+    public int size(InetSocketAddress inetSocketAddress) {
+        List<Channel> channels = channelMap.get(inetSocketAddress.toString());
+        return channels == null ? 0 : channels.size();
+    }
+
+    /**
+     * 获取通道上未完成的请求数
+     **/
+    private static int inFlight(Channel channel) {
+        UnprocessedRequests unprocessedRequests = channel.attr(UnprocessedRequests.KEY).get();
+        return unprocessedRequests == null ? 0 : unprocessedRequests.size();
+    }
 }
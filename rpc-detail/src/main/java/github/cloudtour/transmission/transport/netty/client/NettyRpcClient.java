@@ -1,30 +1,38 @@
 package github.cloudtour.transmission.transport.netty.client;
 
-import github.cloudtour.enums.CompressTypeEnum;
-import github.cloudtour.enums.SerializationTypeEnum;
+import github.cloudtour.enums.RpcConfigEnum;
+import github.cloudtour.enums.RpcErrorMessageEnum;
+import github.cloudtour.exception.RpcException;
 import github.cloudtour.extension.ExtensionLoader;
 import github.cloudtour.factory.SingletonFactory;
 import github.cloudtour.registry.ServiceDiscovery;
 import github.cloudtour.transmission.constants.RpcConstants;
+import github.cloudtour.transmission.dto.RpcCompactRequest;
+import github.cloudtour.transmission.dto.RpcHandshake;
 import github.cloudtour.transmission.dto.RpcMessage;
 import github.cloudtour.transmission.dto.RpcRequest;
 import github.cloudtour.transmission.dto.RpcResponse;
 import github.cloudtour.transmission.transport.RpcRequestTransport;
+import github.cloudtour.transmission.transport.netty.NettyTransportUtil;
+import github.cloudtour.transmission.transport.netty.codec.CodecNegotiator;
 import github.cloudtour.transmission.transport.netty.codec.RpcMessageDecoder;
 import github.cloudtour.transmission.transport.netty.codec.RpcMessageEncoder;
+import github.cloudtour.utils.RpcConfigUtil;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
-import lombok.SneakyThrows;
+import io.netty.util.AttributeKey;
+import io.netty.util.Timeout;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -36,27 +44,51 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class NettyRpcClient implements RpcRequestTransport {
 
+    /**
+     * 服务端的握手响应，包含协商出的序列化方式、压缩方式和方法编号表；
+     * 握手完成前为null，此时使用默认编码发送完整请求
+     */
+    public static final AttributeKey<RpcHandshake> HANDSHAKE_KEY = AttributeKey.valueOf("handshake");
+
+    /**
+     * 连接失败后的最大重试次数
+     */
+    private static final int CONNECT_MAX_RETRIES = RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_CONNECT_MAX_RETRIES, 3);
+    /**
+     * 重连退避的初始间隔(毫秒)，每次失败后翻倍
+     */
+    private static final long CONNECT_BACKOFF_BASE = RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_CONNECT_BACKOFF_BASE, 100);
+    /**
+     * 重连退避的最大间隔(毫秒)
+     */
+    private static final long CONNECT_BACKOFF_MAX = RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_CONNECT_BACKOFF_MAX, 5000);
+
     //服务发现
     private final ServiceDiscovery serviceDiscovery;
-    //未完成的请求
-    private final UnprocessedRequests unprocessedRequests;
     //存放通道
     private final ChannelProvider channelProvider;
     private final Bootstrap bootstrap;
     private final EventLoopGroup eventLoopGroup;
+    //正在建立的连接，同一地址的并发调用共享同一个连接结果
+    private final Map<String, CompletableFuture<Channel>> pendingConnects = new ConcurrentHashMap<>();
+    //连接失败的地址在该时刻(System.nanoTime)之前不再尝试连接，直接失败
+    private final Map<String, Long> connectCooldown = new ConcurrentHashMap<>();
 
     public NettyRpcClient() {
         //初始化资源
-        eventLoopGroup = new NioEventLoopGroup();
+        eventLoopGroup = NettyTransportUtil.newEventLoopGroup(0, null);
         bootstrap = new Bootstrap();
         bootstrap.group(eventLoopGroup)
-                .channel(NioSocketChannel.class)
+                .channel(NettyTransportUtil.socketChannelClass())
                 .handler(new LoggingHandler(LogLevel.INFO))
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000) //设置超时时间，如果超过此时间或无法建立连接，则连接将失败
                 .handler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel socketChannel) throws Exception {
+                        //每个连接独立分配请求id并存放未完成的请求
+                        socketChannel.attr(UnprocessedRequests.KEY).set(new UnprocessedRequests());
                         ChannelPipeline pipeline = socketChannel.pipeline();
+                        NettyTransportUtil.configureFlushMode(pipeline);
                         //空闲事件处理器，如果在10秒内没有向服务器发送数据，则会触发空闲事件
                         pipeline.addLast(new IdleStateHandler(0,10,0, TimeUnit.SECONDS));
                         pipeline.addLast(new RpcMessageEncoder());     //编码器
@@ -66,7 +98,6 @@ public class NettyRpcClient implements RpcRequestTransport {
                     }
                 });
         this.serviceDiscovery = ExtensionLoader.getExtensionLoader(ServiceDiscovery.class).getExtension("zk");
-        this.unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
         this.channelProvider = SingletonFactory.getInstance(ChannelProvider.class);
     }
 
@@ -74,67 +105,243 @@ public class NettyRpcClient implements RpcRequestTransport {
     public Object sendRpcRequest(RpcRequest rpcRequest) {
         //构造返回值
         CompletableFuture<RpcResponse<Object>> resultFuture = new CompletableFuture<>();
+        //调用的截止时刻从发起调用开始计算，包含服务发现和建立连接的时间，0表示不超时
+        long timeout = rpcRequest.getTimeout();
+        long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
         //获取服务器地址
         InetSocketAddress inetSocketAddress = serviceDiscovery.lookupService(rpcRequest);
-        //获取服务通道
-        Channel channel = getChannel(inetSocketAddress);
-        if (channel.isActive()){
-            //放入未处理的请求
-            unprocessedRequests.put(rpcRequest.getRequestId(),resultFuture);
-            //构造rpc消息  ---这里的序列化方式、压缩形式都写死了,可以通过方法重载来进行指定
-            RpcMessage rpcMessage = RpcMessage.builder().data(rpcRequest)
-                    .codec(SerializationTypeEnum.HESSIAN.getCode())
-                    .compress(CompressTypeEnum.GZIP.getCode())
-                    .messageType(RpcConstants.REQUEST_TYPE).build();
-            //向通道写入并绑定监听器
-            channel.writeAndFlush(rpcMessage).addListener((ChannelFutureListener) future -> {
-                if (future.isSuccess()) {
-                    log.info("客户端发送消息: [{}]", rpcMessage);
-                } else {
-                    future.channel().close();
-                    resultFuture.completeExceptionally(future.cause());
-                    log.error("发送失败:", future.cause());
-                }
-            });
-        }else {
-            throw new IllegalStateException();
-        }
+        send(inetSocketAddress, rpcRequest, resultFuture, deadline);
         return resultFuture;
     }
 
     /**
-     * 获取通道
+     * 获取服务通道并发送请求，连接建立后再发送，不阻塞调用线程
+     * @param inetSocketAddress 服务器地址
+     * @param rpcRequest        请求
+     * @param resultFuture      返回值
+     * @param deadline          调用的截止时刻(System.nanoTime)，0表示不超时
+     **/
+    private void send(InetSocketAddress inetSocketAddress, RpcRequest rpcRequest,
+                      CompletableFuture<RpcResponse<Object>> resultFuture, long deadline) {
+        long timeout = rpcRequest.getTimeout();
+        CompletableFuture<Channel> channelFuture = getChannel(inetSocketAddress);
+        //连接尚未建立时先按截止时刻设置超时，不等待连接超时和重连退避结束
+        Timeout connectTimeout = deadline != 0 && !channelFuture.isDone()
+                ? UnprocessedRequests.newTimeout(t -> resultFuture.completeExceptionally(
+                        new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT, timeout + "ms")),
+                        Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())))
+                : null;
+        channelFuture.whenComplete((channel, cause) -> {
+            if (connectTimeout != null) {
+                connectTimeout.cancel();
+            }
+            if (cause != null) {
+                resultFuture.completeExceptionally(cause);
+            } else {
+                writeRequest(inetSocketAddress, channel, rpcRequest, resultFuture, deadline);
+            }
+        });
+    }
+
+    /**
+     * 向通道写入请求，超时时间为截止时刻前剩余的时间
+     * @param inetSocketAddress 服务器地址
+     * @param channel           通道
+     * @param rpcRequest        请求
+     * @param resultFuture      返回值
+     * @param deadline          调用的截止时刻(System.nanoTime)，0表示不超时
+     **/
+    private void writeRequest(InetSocketAddress inetSocketAddress, Channel channel, RpcRequest rpcRequest,
+                              CompletableFuture<RpcResponse<Object>> resultFuture, long deadline) {
+        //等待连接期间已超时
+        if (resultFuture.isDone()) {
+            return;
+        }
+        long timeout = 0;
+        if (deadline != 0) {
+            timeout = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (timeout <= 0) {
+                resultFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT, rpcRequest.getRpcServiceName()));
+                return;
+            }
+        }
+        if (!channel.isActive()) {
+            resultFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.CHANNEL_CLOSED, channel.toString()));
+            return;
+        }
+        //放入未处理的请求，并获得该连接上的请求id
+        UnprocessedRequests unprocessedRequests = channel.attr(UnprocessedRequests.KEY).get();
+        int requestId;
+        try {
+            requestId = unprocessedRequests.put(resultFuture, timeout);
+        } catch (RpcException e) {
+            resultFuture.completeExceptionally(e);
+            return;
+        }
+        //该通道在被选出后已被连接池回收，请求改由其他连接发送
+        if (channelProvider.isRetired(channel)) {
+            if (unprocessedRequests.cancel(requestId)) {
+                send(inetSocketAddress, rpcRequest, resultFuture, deadline);
+            }
+            return;
+        }
+        //构造rpc消息，客户端或服务端为该服务指定了双方都支持的序列化方式和压缩方式时使用指定的方式，否则使用握手时协商出的方式
+        RpcHandshake handshake = channel.attr(HANDSHAKE_KEY).get();
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .codec(handshake != null
+                        ? CodecNegotiator.resolveSerializer(rpcRequest.getSerializer(),
+                        serviceCode(handshake.getServiceSerializers(), rpcRequest.getRpcServiceName()),
+                        handshake.getSerializer(), handshake.getSerializers())
+                        : CodecNegotiator.DEFAULT_SERIALIZER)
+                .compress(handshake != null
+                        ? CodecNegotiator.resolveCompress(rpcRequest.getCompress(),
+                        serviceCode(handshake.getServiceCompressors(), rpcRequest.getRpcServiceName()),
+                        handshake.getCompress(), handshake.getCompressors())
+                        : CodecNegotiator.DEFAULT_COMPRESS)
+                .requestId(requestId)
+                .methodKey(rpcRequest.getMethodKey())
+                .deadline(deadline).build();
+        //握手已得到该方法的编号时只发送编号和参数
+        Map<String, Integer> methodIds = handshake == null ? null : handshake.getMethodIds();
+        Integer methodId = methodIds == null ? null : methodIds.get(rpcRequest.getMethodKey());
+        if (methodId != null) {
+            rpcMessage.setMessageType(RpcConstants.COMPACT_REQUEST_TYPE);
+            rpcMessage.setData(new RpcCompactRequest(methodId, rpcRequest.getParameters()));
+        } else {
+            rpcMessage.setMessageType(RpcConstants.REQUEST_TYPE);
+            rpcMessage.setData(rpcRequest);
+        }
+        //向通道写入并绑定监听器
+        channel.writeAndFlush(rpcMessage).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                log.debug("客户端发送消息: [{}]", rpcMessage);
+            } else {
+                unprocessedRequests.fail(requestId, future.cause());
+                future.channel().close();
+                log.error("发送失败:", future.cause());
+            }
+        });
+    }
+
+    /**
+     * 获取通道：从连接池中选择未完成请求数最少的连接，连接池需要扩容时新建连接
+     * <p>
+     * 已有可用连接时扩容在后台进行，本次调用直接使用已有连接
      * @param inetSocketAddress 想要获取通道的地址
-     * @return io.netty.channel.Channel
+     * @return java.util.concurrent.CompletableFuture<io.netty.channel.Channel>
      **/
-    public Channel getChannel(InetSocketAddress inetSocketAddress) {
+    public CompletableFuture<Channel> getChannel(InetSocketAddress inetSocketAddress) {
         Channel channel = channelProvider.get(inetSocketAddress);
-        if (channel == null) {
-            channel = doConnect(inetSocketAddress);
-            channelProvider.set(inetSocketAddress, channel);
+        if (!channelProvider.needGrow(inetSocketAddress, channel)) {
+            return CompletableFuture.completedFuture(channel);
+        }
+        CompletableFuture<Channel> connectFuture = connect(inetSocketAddress);
+        return channel != null ? CompletableFuture.completedFuture(channel) : connectFuture;
+    }
+
+    /**
+     * 连接服务器，同一地址同时只有一个连接在建立，并发的调用共享其结果
+     * @param inetSocketAddress 连接服务器的地址
+     * @return java.util.concurrent.CompletableFuture<io.netty.channel.Channel>
+     **/
+    private CompletableFuture<Channel> connect(InetSocketAddress inetSocketAddress) {
+        String key = inetSocketAddress.toString();
+        CompletableFuture<Channel> pending = pendingConnects.get(key);
+        if (pending != null) {
+            return pending;
+        }
+        CompletableFuture<Channel> connectFuture = new CompletableFuture<>();
+        pending = pendingConnects.putIfAbsent(key, connectFuture);
+        if (pending != null) {
+            return pending;
         }
-        return channel;
+        connectFuture.whenComplete((channel, cause) -> pendingConnects.remove(key, connectFuture));
+        //处于退避期的地址直接失败，避免服务端不可用时被大量连接请求冲击
+        Long notBefore = connectCooldown.get(key);
+        if (notBefore != null && System.nanoTime() - notBefore < 0) {
+            connectFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE, key));
+            return connectFuture;
+        }
+        doConnect(inetSocketAddress, connectFuture, 0);
+        return connectFuture;
     }
 
     /**
-     * 连接服务器并获取通道，这样就可以向服务器发送rpc消息
+     * 连接服务器并获取通道，失败后按指数退避重试，重试耗尽后该地址进入退避期
      * @param inetSocketAddress 连接服务器的地址
-     * @return io.netty.channel.Channel 通道
+     * @param connectFuture     连接结果
+     * @param attempt           已重试的次数
      **/
-    @SneakyThrows
-    public Channel doConnect(InetSocketAddress inetSocketAddress) {
-        CompletableFuture<Channel> completableFuture = new CompletableFuture<>();
-        //构建连接并绑定一个监听器(收到返回值时触发)
+    private void doConnect(InetSocketAddress inetSocketAddress, CompletableFuture<Channel> connectFuture, int attempt) {
+        String key = inetSocketAddress.toString();
+        //构建连接并绑定一个监听器(连接完成时触发)
         bootstrap.connect(inetSocketAddress).addListener((ChannelFutureListener) future -> {
             if (future.isSuccess()) {
-                log.info("客户端已成功连接[{}] !", inetSocketAddress.toString());
-                completableFuture.complete(future.channel());
+                log.info("客户端已成功连接[{}] !", key);
+                connectCooldown.remove(key);
+                //先放入连接池再通知等待者，之后的调用可以直接从连接池获取
+                if (channelProvider.set(inetSocketAddress, future.channel())) {
+                    handshake(future.channel());
+                    connectFuture.complete(future.channel());
+                    return;
+                }
+                //其他连接已使连接池达到最大连接数，关闭新连接并使用已有连接
+                future.channel().close();
+                Channel channel = channelProvider.get(inetSocketAddress);
+                if (channel != null) {
+                    connectFuture.complete(channel);
+                } else {
+                    connectFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.CHANNEL_CLOSED, key));
+                }
+                return;
+            }
+            long backoff = backoffMillis(attempt);
+            if (attempt < CONNECT_MAX_RETRIES) {
+                log.warn("连接[{}]失败，{}毫秒后第{}次重试", key, backoff, attempt + 1);
+                eventLoopGroup.schedule(() -> doConnect(inetSocketAddress, connectFuture, attempt + 1), backoff, TimeUnit.MILLISECONDS);
             } else {
-                throw new IllegalStateException();
+                log.error("连接[{}]失败，{}毫秒内不再尝试", key, backoff, future.cause());
+                connectCooldown.put(key, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff));
+                connectFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE.getMessage() + ":" + key, future.cause()));
             }
         });
-        //异步等待结果返回
-        return completableFuture.get();
+    }
+
+    /**
+     * 发送握手请求，声明本节点支持的序列化方式和压缩方式，并获取服务端的方法编号表；
+     * 握手完成前该连接上的请求使用默认编码并以完整形式发送
+     * @param channel 新建立的通道
+     **/
+    private void handshake(Channel channel) {
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .codec(CodecNegotiator.DEFAULT_SERIALIZER)
+                .compress(CodecNegotiator.DEFAULT_COMPRESS)
+                .messageType(RpcConstants.HANDSHAKE_REQUEST_TYPE)
+                .data(RpcHandshake.builder()
+                        .serializers(CodecNegotiator.serializers())
+                        .compressors(CodecNegotiator.compressors()).build()).build();
+        channel.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    }
+
+    /**
+     * 获取服务端为服务指定的编码
+     * @param serviceCodes   握手响应中服务名称到编码的映射，可以为null
+     * @param rpcServiceName 服务名称
+     * @return java.lang.Byte 未指定时返回null
+     **/
+    private static Byte serviceCode(Map<String, Integer> serviceCodes, String rpcServiceName) {
+        Integer code = serviceCodes == null ? null : serviceCodes.get(rpcServiceName);
+        return code == null ? null : code.byteValue();
+    }
+
+    /**
+     * 计算第attempt次失败后的退避时间：初始间隔按2的幂增长，不超过最大间隔，并加入随机抖动使各客户端错开重连
+     * @param attempt 已重试的次数
+     * @return long 退避时间(毫秒)
+     **/
+    private static long backoffMillis(int attempt) {
+        long delay = Math.min(CONNECT_BACKOFF_MAX, CONNECT_BACKOFF_BASE << Math.min(attempt, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
     }
 
 }
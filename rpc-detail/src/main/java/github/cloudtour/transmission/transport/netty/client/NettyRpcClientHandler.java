@@ -1,17 +1,22 @@
 package github.cloudtour.transmission.transport.netty.client;
 
 import github.cloudtour.enums.CompressTypeEnum;
+import github.cloudtour.enums.RpcErrorMessageEnum;
 import github.cloudtour.enums.SerializationTypeEnum;
+import github.cloudtour.exception.RpcException;
 import github.cloudtour.factory.SingletonFactory;
+import github.cloudtour.serialize.ServiceTypeTable;
 import github.cloudtour.transmission.constants.RpcConstants;
+import github.cloudtour.transmission.dto.RpcHandshake;
 import github.cloudtour.transmission.dto.RpcMessage;
 import github.cloudtour.transmission.dto.RpcResponse;
+import github.cloudtour.transmission.transport.netty.codec.CodecNegotiator;
+import github.cloudtour.transmission.transport.netty.codec.RpcEnvelopeCodec;
 import io.netty.channel.*;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import lombok.extern.slf4j.Slf4j;
 
-import java.net.InetSocketAddress;
 
 /**
  * 自定义客户端ChannelHandler以处理服务器发送的数据
@@ -26,13 +31,10 @@ import java.net.InetSocketAddress;
 @Slf4j
 public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
 
-    //存放服务器未处理的请求
-    private final UnprocessedRequests unprocessedRequests;
-    private final NettyRpcClient nettyRpcClient;
+    private final ChannelProvider channelProvider;
 
     public NettyRpcClientHandler() {
-        this.unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
-        this.nettyRpcClient = SingletonFactory.getInstance(NettyRpcClient.class);
+        this.channelProvider = SingletonFactory.getInstance(ChannelProvider.class);
     }
 
     /**
@@ -40,34 +42,67 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
      */
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        log.info("客户端接收到消息: [{}]", msg);
+        log.debug("客户端接收到消息: [{}]", msg);
         if (msg instanceof RpcMessage){
             RpcMessage tmp = (RpcMessage) msg;
             byte messageType = tmp.getMessageType();
             if (messageType == RpcConstants.HEARTBEAT_RESPONSE_TYPE){
-                log.info("心跳 [{}]", tmp.getData());
+                log.debug("心跳 [{}]", tmp.getData());
             }else if (messageType == RpcConstants.RESPONSE_TYPE){
                 RpcResponse<Object> rpcResponse = (RpcResponse<Object>) tmp.getData();
-                //设置结果
-                unprocessedRequests.complete(rpcResponse);
+                //按头部中的请求id设置结果
+                ctx.channel().attr(UnprocessedRequests.KEY).get().complete(tmp.getRequestId(), rpcResponse);
+            }else if (messageType == RpcConstants.HANDSHAKE_RESPONSE_TYPE){
+                //保存协商结果和服务端分配的方法编号，之后的请求使用协商出的编码并只需发送方法编号
+                RpcHandshake rpcHandshake = (RpcHandshake) tmp.getData();
+                if (rpcHandshake != null) {
+                    //服务端未给出有效的协商结果时使用默认编码
+                    if (SerializationTypeEnum.getName(rpcHandshake.getSerializer()) == null
+                            || CompressTypeEnum.getName(rpcHandshake.getCompress()) == null) {
+                        rpcHandshake.setSerializer(CodecNegotiator.DEFAULT_SERIALIZER);
+                        rpcHandshake.setCompress(CodecNegotiator.DEFAULT_COMPRESS);
+                    }
+                    ctx.channel().attr(NettyRpcClient.HANDSHAKE_KEY).set(rpcHandshake);
+                    //之后的请求和响应按服务端给出的服务类型编号表序列化
+                    ctx.channel().attr(RpcEnvelopeCodec.SERVICE_TYPES_KEY).set(ServiceTypeTable.of(rpcHandshake.getServiceTypes()));
+                    log.info("握手完成，序列化方式[{}]，压缩方式[{}]", SerializationTypeEnum.getName(rpcHandshake.getSerializer()),
+                            CompressTypeEnum.getName(rpcHandshake.getCompress()));
+                }
             }
         }
     }
 
+    /**
+     * 连接关闭时，一次性失败该连接上所有未完成的请求，避免调用方一直等待
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        ctx.channel().attr(UnprocessedRequests.KEY).get()
+                .failAll(new RpcException(RpcErrorMessageEnum.CHANNEL_CLOSED, String.valueOf(ctx.channel().remoteAddress())));
+        super.channelInactive(ctx);
+    }
+
     /**
      * 用来处理空闲事件
      */
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
-        //客户端发生空闲事件则向服务器发送一个心跳请求
+        //客户端发生空闲事件时，连接池超过最小连接数则回收该连接，否则向服务器发送一个心跳请求
         if (evt instanceof IdleStateEvent) {
             IdleState state = ((IdleStateEvent) evt).state();
             if (state == IdleState.WRITER_IDLE) {
                 log.info("发生写入空闲 [{}]", ctx.channel().remoteAddress());
-                Channel channel = nettyRpcClient.getChannel((InetSocketAddress) ctx.channel().remoteAddress());
+                Channel channel = ctx.channel();
+                if (channelProvider.tryRetire(channel)) {
+                    log.info("回收空闲连接 [{}]", channel);
+                    channel.close();
+                    return;
+                }
+                //心跳没有正文，头部使用握手时协商出的编码
+                RpcHandshake rpcHandshake = channel.attr(NettyRpcClient.HANDSHAKE_KEY).get();
                 RpcMessage rpcMessage = new RpcMessage();
-                rpcMessage.setCodec(SerializationTypeEnum.PROTOSTUFF.getCode());
-                rpcMessage.setCompress(CompressTypeEnum.GZIP.getCode());
+                rpcMessage.setCodec(rpcHandshake != null ? rpcHandshake.getSerializer() : CodecNegotiator.DEFAULT_SERIALIZER);
+                rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
                 rpcMessage.setMessageType(RpcConstants.HEARTBEAT_REQUEST_TYPE);
                 rpcMessage.setData(RpcConstants.PING);
                 channel.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
@@ -1,43 +1,208 @@
 package github.cloudtour.transmission.transport.netty.client;
 
+import github.cloudtour.enums.RpcErrorMessageEnum;
+import github.cloudtour.exception.RpcException;
+import github.cloudtour.threadpool.ThreadPoolFactoryUtil;
 import github.cloudtour.transmission.dto.RpcResponse;
+import io.netty.util.AttributeKey;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import lombok.extern.slf4j.Slf4j;
 
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * 存放服务器未处理的请求
+ * 存放服务器未处理的请求--每个连接一个实例，挂在通道属性上
+ * <p>
+ * 请求id由本表按连接分配并写入帧头部，响应按头部中的id找回对应的future。
+ * 容器为定长槽位数组：槽位下标为 id & mask，通过CAS占用和释放，无锁且key不装箱。
+ * 请求超时由所有连接共享的一个时间轮负责，连接关闭时一次性失败该连接上的全部请求
  *
  * @author cloudtour
  * @version 1.0
  */
+@Slf4j
 public class UnprocessedRequests {
+    /**
+     * 通道属性key
+     **/
+    public static final AttributeKey<UnprocessedRequests> KEY = AttributeKey.valueOf("unprocessedRequests");
+    /**
+     * 默认槽位数量，即单个连接上允许同时存在的未完成请求数，必须是2的幂
+     **/
+    private static final int DEFAULT_CAPACITY = 1 << 12;
+    /**
+     * 请求超时时间轮，tick为10毫秒
+     **/
+    private static final HashedWheelTimer TIMEOUT_TIMER = new HashedWheelTimer(
+            ThreadPoolFactoryUtil.createThreadFactory("rpc-request-timeout-timer", true), 10, TimeUnit.MILLISECONDS);
+
     /**
      *  存放服务器未处理的请求容器
      **/
-    public static final Map<String, CompletableFuture<RpcResponse<Object>>> UNPROCESSED_RESPONSE_FUTURES = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<PendingRequest> slots;
+    private final int mask;
+    /**
+     * 请求id生成器，溢出后回绕不影响使用
+     **/
+    private final AtomicInteger idGenerator = new AtomicInteger();
+    /**
+     * 当前未完成的请求数，供连接池选择负载最低的连接
+     **/
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    public UnprocessedRequests() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public UnprocessedRequests(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("容量必须是2的幂: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
 
     /**
-     * 将未处理的请求添加进容器中
-     * @param requestId    请求id
-     * @param future       为处理的请求
+     * 将未处理的请求添加进容器中，并为其分配请求id
+     * @param future          未处理的请求
+     * @param timeoutMillis   超时时间(毫秒)，小于等于0表示不超时
+     * @return int 分配的请求id
      **/
-    public void put(String requestId, CompletableFuture<RpcResponse<Object>> future) {
-        UNPROCESSED_RESPONSE_FUTURES.put(requestId, future);
+    public int put(CompletableFuture<RpcResponse<Object>> future, long timeoutMillis) {
+        PendingRequest pendingRequest = new PendingRequest(future);
+        //对应槽位被占用时跳过该id继续尝试，最多尝试一轮
+        for (int i = 0; i < slots.length(); i++) {
+            int requestId = idGenerator.getAndIncrement();
+            pendingRequest.requestId = requestId;
+            if (slots.compareAndSet(requestId & mask, null, pendingRequest)) {
+                pendingCount.incrementAndGet();
+                if (timeoutMillis > 0) {
+                    pendingRequest.timeout = TIMEOUT_TIMER.newTimeout(
+                            timeout -> fail(requestId, new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT, timeoutMillis + "ms")),
+                            timeoutMillis, TimeUnit.MILLISECONDS);
+                }
+                return requestId;
+            }
+        }
+        throw new RpcException(RpcErrorMessageEnum.TOO_MANY_PENDING_REQUESTS, String.valueOf(slots.length()));
     }
 
     /**
-     * 将已完成的请求从容器中删除
+     * 将已完成的请求从容器中删除并设置结果
+     * @param requestId   帧头部中的请求id
      * @param rpcResponse rpc响应
      **/
-    public void complete(RpcResponse<Object> rpcResponse) {
-        CompletableFuture<RpcResponse<Object>> future = UNPROCESSED_RESPONSE_FUTURES.remove(rpcResponse.getRequestId());
-        if (null != future) {
+    public void complete(int requestId, RpcResponse<Object> rpcResponse) {
+        PendingRequest pendingRequest = remove(requestId);
+        if (null != pendingRequest) {
             //设置结果
-            future.complete(rpcResponse);
+            pendingRequest.future.complete(rpcResponse);
         } else {
-            throw new IllegalStateException();
+            //请求已超时或已失败，丢弃迟到的响应
+            log.warn("没有找到请求id为[{}]的未完成请求，响应已丢弃", requestId);
+        }
+    }
+
+    /**
+     * 将请求从容器中删除并以异常结束
+     * @param requestId 请求id
+     * @param cause     失败原因
+     **/
+    public void fail(int requestId, Throwable cause) {
+        PendingRequest pendingRequest = remove(requestId);
+        if (null != pendingRequest) {
+            pendingRequest.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * 将请求从容器中删除但不设置结果--请求改由其他连接发送时调用
+     * @param requestId 请求id
+     * @return boolean 请求是否仍在容器中
+     **/
+    public boolean cancel(int requestId) {
+        return remove(requestId) != null;
+    }
+
+    /**
+     * 以异常结束容器中的全部请求--连接关闭时调用
+     * @param cause 失败原因
+     **/
+    public void failAll(Throwable cause) {
+        for (int i = 0; i < slots.length(); i++) {
+            PendingRequest pendingRequest = slots.get(i);
+            if (pendingRequest != null && slots.compareAndSet(i, pendingRequest, null)) {
+                pendingCount.decrementAndGet();
+                cancelTimeout(pendingRequest);
+                pendingRequest.future.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * 在请求超时时间轮上执行延时任务，用于请求放入容器之前(例如等待建立连接时)的超时
+     * @param task          超时任务
+     * @param delayMillis   延时(毫秒)
+     * @return io.netty.util.Timeout
+     **/
+    static Timeout newTimeout(TimerTask task, long delayMillis) {
+        return TIMEOUT_TIMER.newTimeout(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 获取当前未完成的请求数
+     * @return int
+     **/
+    public int size() {
+        return pendingCount.get();
+    }
+
+    /**
+     * 从容器中删除请求，并取消其超时任务
+     * @param requestId 请求id
+     * @return PendingRequest 被删除的请求，不存在时返回null
+     **/
+    private PendingRequest remove(int requestId) {
+        int index = requestId & mask;
+        PendingRequest pendingRequest = slots.get(index);
+        //槽位可能已被复用，需校验id
+        if (pendingRequest != null && pendingRequest.requestId == requestId
+                && slots.compareAndSet(index, pendingRequest, null)) {
+            pendingCount.decrementAndGet();
+            cancelTimeout(pendingRequest);
+            return pendingRequest;
+        }
+        return null;
+    }
+
+    private static void cancelTimeout(PendingRequest pendingRequest) {
+        Timeout timeout = pendingRequest.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * 槽位中存放的未完成请求
+     **/
+    static final class PendingRequest {
+        /**
+         * 在CAS发布之前写入，对读取方可见
+         **/
+        int requestId;
+        final CompletableFuture<RpcResponse<Object>> future;
+        /**
+         * 超时任务，在请求发布后才设置
+         **/
+        volatile Timeout timeout;
+
+        PendingRequest(CompletableFuture<RpcResponse<Object>> future) {
+            this.future = future;
         }
     }
 }
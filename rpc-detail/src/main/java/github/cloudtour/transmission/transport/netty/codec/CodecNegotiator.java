@@ -0,0 +1,243 @@
+package github.cloudtour.transmission.transport.netty.codec;
+
+import github.cloudtour.enums.CompressTypeEnum;
+import github.cloudtour.enums.RpcConfigEnum;
+import github.cloudtour.enums.SerializationTypeEnum;
+import github.cloudtour.utils.RpcConfigUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 序列化方式与压缩方式协商--握手时双方按偏好顺序声明各自支持的编码，取双方都支持的最优组合
+ * <p>
+ * 声明的编码包含本节点加载到的所有编码：偏好配置中的编码在前，决定协商结果；其余编码在后，
+ * 只用于服务单独指定编码时判断对方是否支持
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+@Slf4j
+public final class CodecNegotiator {
+
+    /**
+     * 握手完成前以及协商失败时使用的序列化方式，所有节点都支持
+     */
+    public static final byte DEFAULT_SERIALIZER = SerializationTypeEnum.HESSIAN.getCode();
+    /**
+     * 握手完成前以及协商失败时使用的压缩方式，所有节点都支持
+     */
+    public static final byte DEFAULT_COMPRESS = CompressTypeEnum.GZIP.getCode();
+
+    /**
+     * 协商使用的序列化方式，按偏好顺序排列，通过rpc.codec.serializer.preference配置
+     */
+    private static final byte[] PREFERRED_SERIALIZERS = preferredSerializers(
+            RpcConfigUtil.getString(RpcConfigEnum.CODEC_SERIALIZER_PREFERENCE, "hessian2,hessian,kyro,protostuff"));
+    /**
+     * 协商使用的压缩方式，按偏好顺序排列，通过rpc.codec.compress.preference配置
+     */
+    private static final byte[] PREFERRED_COMPRESSORS = preferredCompressors(
+            RpcConfigUtil.getString(RpcConfigEnum.CODEC_COMPRESS_PREFERENCE, "gzip"));
+    /**
+     * 本节点支持的序列化方式：偏好的方式在前，其余已加载的方式在后
+     */
+    private static final byte[] SERIALIZERS = supportedSerializers(PREFERRED_SERIALIZERS);
+    /**
+     * 本节点支持的压缩方式：偏好的方式在前，其余已加载的方式(不含NONE)在后
+     */
+    private static final byte[] COMPRESSORS = supportedCompressors(PREFERRED_COMPRESSORS);
+    /**
+     * 已告警过的回退，每种编码只告警一次，避免每次请求都打印
+     */
+    private static final Set<String> WARNED_FALLBACKS = ConcurrentHashMap.newKeySet();
+
+    private CodecNegotiator() {
+    }
+
+    /**
+     * 获取本节点支持的序列化方式，在握手时声明
+     * @return byte[] 偏好的序列化编码在前，其余已加载的在后
+     **/
+    public static byte[] serializers() {
+        return SERIALIZERS.clone();
+    }
+
+    /**
+     * 获取本节点支持的压缩方式，在握手时声明
+     * @return byte[] 偏好的压缩编码在前，其余已加载的在后
+     **/
+    public static byte[] compressors() {
+        return COMPRESSORS.clone();
+    }
+
+    /**
+     * 按对方的偏好顺序选出本节点也偏好的第一个序列化方式
+     * @param offered 对方声明的序列化编码
+     * @return byte 选中的编码，没有共同偏好的编码时返回默认值
+     **/
+    public static byte chooseSerializer(byte[] offered) {
+        return choose(offered, PREFERRED_SERIALIZERS, DEFAULT_SERIALIZER);
+    }
+
+    /**
+     * 按对方的偏好顺序选出本节点也偏好的第一个压缩方式
+     * @param offered 对方声明的压缩编码
+     * @return byte 选中的编码，没有共同偏好的编码时返回默认值
+     **/
+    public static byte chooseCompress(byte[] offered) {
+        return choose(offered, PREFERRED_COMPRESSORS, DEFAULT_COMPRESS);
+    }
+
+    /**
+     * 获取请求使用的序列化方式：优先使用客户端指定的方式，其次为服务端为该服务指定的方式，都不可用时使用协商结果
+     * @param preferred     客户端指定的序列化方式，可以为null
+     * @param serviceCode   服务端为该服务指定的序列化编码，可以为null
+     * @param negotiated    握手协商出的序列化编码
+     * @param peerSupported 对方声明支持的序列化编码，可以为null
+     * @return byte
+     **/
+    public static byte resolveSerializer(SerializationTypeEnum preferred, Byte serviceCode, byte negotiated, byte[] peerSupported) {
+        if (preferred == null && serviceCode == null) {
+            return negotiated;
+        }
+        Byte code = resolve(preferred == null ? null : preferred.getCode(), serviceCode, peerSupported, SERIALIZERS);
+        if (code == null) {
+            warnFallback("序列化方式", preferred != null ? preferred.getName() : SerializationTypeEnum.getName(serviceCode),
+                    SerializationTypeEnum.getName(negotiated));
+            return negotiated;
+        }
+        return code;
+    }
+
+    /**
+     * 获取请求使用的压缩方式：优先使用客户端指定的方式，其次为服务端为该服务指定的方式，都不可用时使用协商结果
+     * @param preferred     客户端指定的压缩方式，可以为null
+     * @param serviceCode   服务端为该服务指定的压缩编码，可以为null
+     * @param negotiated    握手协商出的压缩编码
+     * @param peerSupported 对方声明支持的压缩编码，可以为null
+     * @return byte
+     **/
+    public static byte resolveCompress(CompressTypeEnum preferred, Byte serviceCode, byte negotiated, byte[] peerSupported) {
+        if (preferred == null && serviceCode == null) {
+            return negotiated;
+        }
+        Byte code = resolve(preferred == null ? null : preferred.getCode(), serviceCode, peerSupported, COMPRESSORS);
+        if (code == null) {
+            warnFallback("压缩方式", preferred != null ? preferred.getName() : CompressTypeEnum.getName(serviceCode),
+                    CompressTypeEnum.getName(negotiated));
+            return negotiated;
+        }
+        return code;
+    }
+
+    /**
+     * 客户端指定的编码需双方都支持，服务端指定的编码需本节点支持
+     * @return java.lang.Byte 指定的编码都不可用时返回null
+     **/
+    private static Byte resolve(Byte preferred, Byte serviceCode, byte[] peerSupported, byte[] supported) {
+        if (preferred != null && contains(peerSupported, preferred) && contains(supported, preferred)) {
+            return preferred;
+        }
+        if (serviceCode != null && contains(supported, serviceCode)) {
+            return serviceCode;
+        }
+        return null;
+    }
+
+    /**
+     * 服务指定的编码对方或本节点不支持，回退为协商结果时告警
+     * @param kind       编码种类
+     * @param specified  指定的编码名字
+     * @param negotiated 协商出的编码名字
+     **/
+    private static void warnFallback(String kind, String specified, String negotiated) {
+        if (WARNED_FALLBACKS.add(kind + specified)) {
+            log.warn("服务指定的{}[{}]不被双方同时支持，改用协商结果[{}]", kind, specified, negotiated);
+        }
+    }
+
+    private static boolean contains(byte[] codes, byte code) {
+        if (codes == null) {
+            return false;
+        }
+        for (byte c : codes) {
+            if (c == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte choose(byte[] offered, byte[] supported, byte defaultCode) {
+        if (offered == null) {
+            return defaultCode;
+        }
+        for (byte code : offered) {
+            for (byte own : supported) {
+                if (code == own) {
+                    return code;
+                }
+            }
+        }
+        return defaultCode;
+    }
+
+    /**
+     * 解析偏好配置，只保留能加载到扩展实现的序列化方式
+     **/
+    private static byte[] preferredSerializers(String preference) {
+        ByteArrayOutputStream codes = new ByteArrayOutputStream();
+        for (String name : preference.split(",")) {
+            SerializationTypeEnum type = SerializationTypeEnum.getByName(name.trim());
+            if (type != null && CodecRegistry.hasSerializer(type.getCode())) {
+                codes.write(type.getCode());
+            }
+        }
+        return codes.toByteArray();
+    }
+
+    /**
+     * 解析偏好配置，只保留能加载到扩展实现的压缩方式
+     **/
+    private static byte[] preferredCompressors(String preference) {
+        ByteArrayOutputStream codes = new ByteArrayOutputStream();
+        for (String name : preference.split(",")) {
+            CompressTypeEnum type = CompressTypeEnum.getByName(name.trim());
+            if (type != null && CodecRegistry.hasCompress(type.getCode())) {
+                codes.write(type.getCode());
+            }
+        }
+        return codes.toByteArray();
+    }
+
+    /**
+     * 在偏好的序列化方式之后追加其余能加载到扩展实现的序列化方式
+     **/
+    private static byte[] supportedSerializers(byte[] preferred) {
+        ByteArrayOutputStream codes = new ByteArrayOutputStream();
+        codes.write(preferred, 0, preferred.length);
+        for (SerializationTypeEnum type : SerializationTypeEnum.values()) {
+            if (CodecRegistry.hasSerializer(type.getCode()) && !contains(preferred, type.getCode())) {
+                codes.write(type.getCode());
+            }
+        }
+        return codes.toByteArray();
+    }
+
+    /**
+     * 在偏好的压缩方式之后追加其余能加载到扩展实现的压缩方式，NONE只有在偏好配置中时才声明
+     **/
+    private static byte[] supportedCompressors(byte[] preferred) {
+        ByteArrayOutputStream codes = new ByteArrayOutputStream();
+        codes.write(preferred, 0, preferred.length);
+        for (CompressTypeEnum type : CompressTypeEnum.values()) {
+            if (type != CompressTypeEnum.NONE && CodecRegistry.hasCompress(type.getCode()) && !contains(preferred, type.getCode())) {
+                codes.write(type.getCode());
+            }
+        }
+        return codes.toByteArray();
+    }
+}
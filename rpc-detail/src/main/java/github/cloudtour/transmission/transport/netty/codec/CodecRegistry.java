@@ -0,0 +1,97 @@
+package github.cloudtour.transmission.transport.netty.codec;
+
+import github.cloudtour.compress.Compress;
+import github.cloudtour.enums.CompressTypeEnum;
+import github.cloudtour.enums.RpcErrorMessageEnum;
+import github.cloudtour.enums.SerializationTypeEnum;
+import github.cloudtour.exception.RpcException;
+import github.cloudtour.extension.ExtensionLoader;
+import github.cloudtour.serialize.Serializer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 编码注册表--类加载时通过扩展加载器解析所有序列化方式和压缩方式，按头部中的编码存入数组，
+ * 编解码每一帧时只需按编码读取数组，不再按名字查找扩展
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+@Slf4j
+public final class CodecRegistry {
+
+    /**
+     * 序列化方式，下标为序列化编码，无法加载的为null
+     */
+    private static final Serializer[] SERIALIZERS = new Serializer[256];
+    /**
+     * 压缩方式，下标为压缩编码，NONE和无法加载的为null
+     */
+    private static final Compress[] COMPRESSORS = new Compress[256];
+
+    static {
+        for (SerializationTypeEnum type : SerializationTypeEnum.values()) {
+            SERIALIZERS[type.getCode() & 0xff] = load(Serializer.class, type.getName());
+        }
+        for (CompressTypeEnum type : CompressTypeEnum.values()) {
+            if (type != CompressTypeEnum.NONE) {
+                COMPRESSORS[type.getCode() & 0xff] = load(Compress.class, type.getName());
+            }
+        }
+    }
+
+    private CodecRegistry() {
+    }
+
+    /**
+     * 按编码获取序列化方式
+     * @param code 序列化编码
+     * @return github.cloudtour.serialize.Serializer
+     **/
+    public static Serializer getSerializer(byte code) {
+        Serializer serializer = SERIALIZERS[code & 0xff];
+        if (serializer == null) {
+            throw new RpcException(RpcErrorMessageEnum.UNSUPPORTED_SERIALIZER, String.valueOf(code));
+        }
+        return serializer;
+    }
+
+    /**
+     * 按编码获取压缩方式
+     * @param code 压缩编码，不能为NONE
+     * @return github.cloudtour.compress.Compress
+     **/
+    public static Compress getCompress(byte code) {
+        Compress compress = COMPRESSORS[code & 0xff];
+        if (compress == null) {
+            throw new RpcException(RpcErrorMessageEnum.UNSUPPORTED_COMPRESS, String.valueOf(code));
+        }
+        return compress;
+    }
+
+    /**
+     * 本节点是否能使用该序列化方式
+     * @param code 序列化编码
+     * @return boolean
+     **/
+    public static boolean hasSerializer(byte code) {
+        return SERIALIZERS[code & 0xff] != null;
+    }
+
+    /**
+     * 本节点是否能使用该压缩方式，NONE总是可用
+     * @param code 压缩编码
+     * @return boolean
+     **/
+    public static boolean hasCompress(byte code) {
+        return code == CompressTypeEnum.NONE.getCode() || COMPRESSORS[code & 0xff] != null;
+    }
+
+    private static <T> T load(Class<T> type, String name) {
+        try {
+            return ExtensionLoader.getExtensionLoader(type).getExtension(name);
+        } catch (RuntimeException | LinkageError e) {
+            log.warn("无法加载扩展[{}]，不使用该编码", name, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package github.cloudtour.transmission.transport.netty.codec;
+
+import github.cloudtour.exception.SerializeException;
+import github.cloudtour.provider.MethodInvoker;
+import github.cloudtour.provider.ServiceProvider;
+import github.cloudtour.serialize.Serializer;
+import github.cloudtour.serialize.ServiceTypeTable;
+import github.cloudtour.transmission.constants.RpcConstants;
+import github.cloudtour.transmission.dto.RpcCompactRequest;
+import github.cloudtour.transmission.dto.RpcDictionary;
+import github.cloudtour.transmission.dto.RpcHandshake;
+import github.cloudtour.transmission.dto.RpcRequest;
+import github.cloudtour.transmission.dto.RpcResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.AttributeKey;
+
+/**
+ * 消息正文编解码--请求和响应的固定字段按顺序手工写入，只有方法参数和返回值交给序列化方式
+ * <pre>
+ * 请求：    接口名称 | 方法名称 | 版本 | 组 | 参数个数 | 参数类型名称... | 方法参数
+ * 精简请求：方法编号 | 方法参数
+ * 响应：    响应编码 | 响应消息 | 响应数据
+ * </pre>
+ * 字符串写为varint长度+UTF-8字节，长度写为实际长度+1，0表示null；整数写为varint；
+ * 参数类型名称只与服务端已发布方法的签名比对，使用方法调用器中的参数类型，不按名称加载类，
+ * 服务提供者由解码器创建时传入，没有服务提供者或无法匹配时参数类型为null，由请求处理器拒绝；
+ * 方法参数和响应数据位于正文末尾，按连接的服务类型编号表由
+ * {@link Serializer#serializeValue(Object, java.io.OutputStream, ServiceTypeTable)}写出。
+ * 握手和字典消息不频繁，仍整体交给序列化方式
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+public final class RpcEnvelopeCodec {
+
+    /**
+     * 连接的服务类型编号表，握手时设置，未设置时使用空编号表
+     */
+    public static final AttributeKey<ServiceTypeTable> SERVICE_TYPES_KEY = AttributeKey.valueOf("serviceTypes");
+
+    private RpcEnvelopeCodec() {
+    }
+
+    /**
+     * 按消息类型编码正文
+     * @param messageType 消息类型
+     * @param data        正文
+     * @param serializer  序列化方式
+     * @param typeTable   服务类型编号表，可以为null
+     * @param out         输出缓冲区
+     **/
+    public static void encode(byte messageType, Object data, Serializer serializer, ServiceTypeTable typeTable, ByteBuf out) {
+        switch (messageType) {
+            case RpcConstants.REQUEST_TYPE:
+                writeRequest((RpcRequest) data, serializer, typeTable, out);
+                break;
+            case RpcConstants.COMPACT_REQUEST_TYPE:
+                RpcCompactRequest compactRequest = (RpcCompactRequest) data;
+                writeVarInt(out, compactRequest.getMethodId());
+                serializer.serializeValue(compactRequest.getParameters(), new ByteBufOutputStream(out), typeTable);
+                break;
+            case RpcConstants.RESPONSE_TYPE:
+                RpcResponse<?> rpcResponse = (RpcResponse<?>) data;
+                Integer code = rpcResponse.getCode();
+                writeVarInt(out, code == null ? 0 : code + 1);
+                writeString(out, rpcResponse.getMessage());
+                serializer.serializeValue(rpcResponse.getData(), new ByteBufOutputStream(out), typeTable);
+                break;
+            default:
+                serializer.serialize(data, new ByteBufOutputStream(out));
+        }
+    }
+
+    /**
+     * 按消息类型解码正文
+     * @param messageType 消息类型
+     * @param in          正文
+     * @param serializer  序列化方式
+     * @param typeTable   服务类型编号表，可以为null
+     * @param serviceProvider 用于匹配请求参数类型的服务提供者，可以为null
+     * @return java.lang.Object
+     **/
+    public static Object decode(byte messageType, ByteBuf in, Serializer serializer, ServiceTypeTable typeTable,
+                                ServiceProvider serviceProvider) {
+        switch (messageType) {
+            case RpcConstants.REQUEST_TYPE:
+                return readRequest(in, serializer, typeTable, serviceProvider);
+            case RpcConstants.COMPACT_REQUEST_TYPE:
+                int methodId = readVarInt(in);
+                return new RpcCompactRequest(methodId, (Object[]) serializer.deserializeValue(new ByteBufInputStream(in), typeTable));
+            case RpcConstants.RESPONSE_TYPE:
+                int code = readVarInt(in);
+                String message = readString(in);
+                Object data = serializer.deserializeValue(new ByteBufInputStream(in), typeTable);
+                return new RpcResponse<>(code == 0 ? null : code - 1, message, data);
+            case RpcConstants.HANDSHAKE_REQUEST_TYPE:
+            case RpcConstants.HANDSHAKE_RESPONSE_TYPE:
+                return serializer.deserialize(new ByteBufInputStream(in), RpcHandshake.class);
+            case RpcConstants.DICTIONARY_TYPE:
+                return serializer.deserialize(new ByteBufInputStream(in), RpcDictionary.class);
+            default:
+                throw new SerializeException("未知的消息类型: " + messageType);
+        }
+    }
+
+    private static void writeRequest(RpcRequest rpcRequest, Serializer serializer, ServiceTypeTable typeTable, ByteBuf out) {
+        writeString(out, rpcRequest.getInterfaceName());
+        writeString(out, rpcRequest.getMethodName());
+        writeString(out, rpcRequest.getVersion());
+        writeString(out, rpcRequest.getGroup());
+        Class<?>[] paramTypes = rpcRequest.getParamTypes();
+        writeVarInt(out, paramTypes == null ? 0 : paramTypes.length + 1);
+        if (paramTypes != null) {
+            for (Class<?> paramType : paramTypes) {
+                writeString(out, paramType.getName());
+            }
+        }
+        serializer.serializeValue(rpcRequest.getParameters(), new ByteBufOutputStream(out), typeTable);
+    }
+
+    private static RpcRequest readRequest(ByteBuf in, Serializer serializer, ServiceTypeTable typeTable,
+                                          ServiceProvider serviceProvider) {
+        String interfaceName = readString(in);
+        String methodName = readString(in);
+        String version = readString(in);
+        String group = readString(in);
+        int paramCount = readVarInt(in) - 1;
+        Class<?>[] paramTypes = null;
+        if (paramCount >= 0) {
+            if (paramCount > in.readableBytes()) {
+                throw new SerializeException("参数个数超出正文: " + paramCount);
+            }
+            String[] paramTypeNames = new String[paramCount];
+            for (int i = 0; i < paramCount; i++) {
+                paramTypeNames[i] = readString(in);
+            }
+            paramTypes = resolveParamTypes(serviceProvider, interfaceName + group + version, methodName, paramTypeNames);
+        }
+        return RpcRequest.builder()
+                .interfaceName(interfaceName)
+                .methodName(methodName)
+                .version(version)
+                .group(group)
+                .paramTypes(paramTypes)
+                .parameters((Object[]) serializer.deserializeValue(new ByteBufInputStream(in), typeTable))
+                .build();
+    }
+
+    /**
+     * 按参数类型名称在已发布的方法中查找，返回该方法调用器中的参数类型
+     * @param serviceProvider 服务提供者
+     * @param rpcServiceName  服务名称
+     * @param methodName      方法名称
+     * @param paramTypeNames  参数类型名称
+     * @return java.lang.Class<?>[] 参数类型，没有服务提供者或没有匹配的方法时返回null
+     **/
+    private static Class<?>[] resolveParamTypes(ServiceProvider serviceProvider, String rpcServiceName,
+                                                String methodName, String[] paramTypeNames) {
+        if (serviceProvider == null) {
+            return null;
+        }
+        MethodInvoker invoker = serviceProvider.getMethodInvoker(rpcServiceName, methodName, paramTypeNames);
+        return invoker == null ? null : invoker.getParamTypes();
+    }
+
+    /**
+     * 写入字符串：varint长度+UTF-8字节，null写为0
+     * @param out 输出缓冲区
+     * @param s   字符串
+     **/
+    private static void writeString(ByteBuf out, String s) {
+        if (s == null) {
+            out.writeByte(0);
+            return;
+        }
+        int length = ByteBufUtil.utf8Bytes(s);
+        writeVarInt(out, length + 1);
+        ByteBufUtil.reserveAndWriteUtf8(out, s, length);
+    }
+
+    private static String readString(ByteBuf in) {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.readableBytes()) {
+            throw new SerializeException("字符串长度超出正文: " + length);
+        }
+        return in.readCharSequence(length, RpcConstants.DEFAULT_CHARSET).toString();
+    }
+
+    /**
+     * 写入varint：每字节7位，最高位表示后面还有字节，按无符号数写出，最多5个字节
+     * @param out   输出缓冲区
+     * @param value 值
+     **/
+    private static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuf in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new SerializeException("varint格式错误");
+    }
+}
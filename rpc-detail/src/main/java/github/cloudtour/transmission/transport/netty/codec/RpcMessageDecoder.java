@@ -1,36 +1,44 @@
 package github.cloudtour.transmission.transport.netty.codec;
 
 import github.cloudtour.compress.Compress;
+import github.cloudtour.compress.zstd.ZstdDictCompress;
+import github.cloudtour.compress.zstd.ZstdDictionary;
 import github.cloudtour.enums.CompressTypeEnum;
-import github.cloudtour.enums.SerializationTypeEnum;
-import github.cloudtour.extension.ExtensionLoader;
+import github.cloudtour.provider.ServiceProvider;
 import github.cloudtour.serialize.Serializer;
 import github.cloudtour.transmission.constants.RpcConstants;
 import github.cloudtour.transmission.dto.RpcMessage;
-import github.cloudtour.transmission.dto.RpcRequest;
-import github.cloudtour.transmission.dto.RpcResponse;
+import github.cloudtour.transmission.dto.RpcDictionary;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.AttributeKey;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 自定义rpc消息解码器
  * <pre>
- *   0     1     2     3     4        5     6     7     8         9          10      11     12  13  14   15 16
- *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+----- --+-----+-----+-------+
- *   |   magic   code        |version | full length         | messageType| codec|compress|    RequestId       |
- *   +-----------------------+--------+---------------------+-----------+-----------+-----------+------------+
- *   |                                                                                                       |
- *   |                                         body                                                          |
- *   |                                                                                                       |
- *   |                                        ... ...                                                        |
- *   +-------------------------------------------------------------------------------------------------------+
+ *   0     1     2     3     4        5     6     7     8         9          10      11     12  13  14   15  16  17  18  19 20
+ *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+----- --+-----+-----+-------+---+---+---+---+
+ *   |   magic   code        |version | full length         | messageType| codec|compress|    RequestId       |    timeout    |
+ *   +-----------------------+--------+---------------------+-----------+-----------+-----------+------------+---------------+
+ *   |                                                                                                                       |
+ *   |                                         body                                                                          |
+ *   |                                                                                                                       |
+ *   |                                        ... ...                                                                        |
+ *   +-----------------------------------------------------------------------------------------------------------------------+
  * 4B  magic code（魔法数）   1B version（版本）   4B full length（消息长度）    1B messageType（消息类型）
- * 1B codec（序列化类型）      1B compress（压缩类型）     4B  requestId（请求的Id）
- * body（object类型数据）
+ * 1B codec（序列化类型）      1B compress（压缩类型，正文未压缩时最高位置1）     4B  requestId（请求的Id）
+ * 4B timeout（请求剩余的超时毫秒数，0表示没有截止时间）
+ * body（正文，请求和响应见{@link RpcEnvelopeCodec}）
  * </pre>
  * <p>
  * {@link LengthFieldBasedFrameDecoder} 是一种基于长度的解码器，用于解决TCP的拆包和粘贴问题。
@@ -40,12 +48,36 @@ import java.util.Arrays;
  */
 @Slf4j
 public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder{
+
+    /**
+     * 对方发送的压缩字典，key: 字典编号；只在通道的事件循环中访问
+     */
+    private static final AttributeKey<Map<Integer, ZstdDictionary>> RECEIVED_DICTIONARIES = AttributeKey.valueOf("receivedDictionaries");
+
+    /**
+     * 字典解压时每次从解压流读取的字节数
+     */
+    private static final int DECOMPRESS_CHUNK = 4096;
+
+    /**
+     * 用于匹配请求中参数类型的服务提供者，客户端不解码请求，为null
+     */
+    private final ServiceProvider serviceProvider;
+
     public RpcMessageDecoder() {
+        this((ServiceProvider) null);
+    }
+
+    /**
+     * RpcMessageDecoder构造器，服务端传入服务提供者，解码请求时按已发布方法的签名得到参数类型
+     * @param serviceProvider 服务提供者
+     **/
+    public RpcMessageDecoder(ServiceProvider serviceProvider) {
         //lengthFieldOffset：魔术码是4B，版本是1B，然后就是长度字段，因此该值为5
         //lengthFieldLength：长度字段的占位是4B，英雌该值为4
-        //lengthAdjustment：数据包长度(16+body) - lengthFieldOffset(4) - lengthFieldLength(5) - 长度域的值(16+body) = -9
+        //lengthAdjustment：数据包长度(20+body) - lengthFieldOffset(5) - lengthFieldLength(4) - 长度域的值(20+body) = -9
         // initialBytesToStrip：我们将手动检查魔术代码和版本，所以不要剥离任何字节。因此值为0
-        this(RpcConstants.MAX_FRAME_LENGTH, 5, 4, -9, 0);
+        this(RpcConstants.MAX_FRAME_LENGTH, 5, 4, -9, 0, serviceProvider);
     }
 
     /**
@@ -58,7 +90,22 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder{
      **/
     public RpcMessageDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength,
                              int lengthAdjustment, int initialBytesToStrip) {
+        this(maxFrameLength, lengthFieldOffset, lengthFieldLength, lengthAdjustment, initialBytesToStrip, null);
+    }
+
+    /**
+     * RpcMessageDecoder构造器
+     * @param maxFrameLength        发送的数据包最大长度
+     * @param lengthFieldOffset     长度字段的偏移量
+     * @param lengthFieldLength     长度字段的长度
+     * @param lengthAdjustment      长度域的偏移量矫正
+     * @param initialBytesToStrip   接收到的发送数据包，去除前initialBytesToStrip位
+     * @param serviceProvider       服务提供者，为null时解码出的请求没有参数类型
+     **/
+    public RpcMessageDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength,
+                             int lengthAdjustment, int initialBytesToStrip, ServiceProvider serviceProvider) {
         super(maxFrameLength, lengthFieldOffset, lengthFieldLength, lengthAdjustment, initialBytesToStrip);
+        this.serviceProvider = serviceProvider;
     }
 
     @Override
@@ -68,7 +115,7 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder{
             ByteBuf frame = (ByteBuf) decoded;
             if (frame.readableBytes() >= RpcConstants.TOTAL_LENGTH){//说明是正常数据包
                 try {
-                    return decodeFrame(frame);
+                    return decodeFrame(ctx, frame);
                 } catch (Exception e) {
                     log.error("解码器出现错误!", e);
                     throw e;
@@ -82,10 +129,11 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder{
 
     /**
      * 解码
+     * @param ctx   通道上下文
      * @param in    要解码的byteBuf
-     * @return java.lang.Object 解码后的数据
+     * @return java.lang.Object 解码后的数据，字典消息在解码器内处理，返回null
      **/
-    private Object decodeFrame(ByteBuf in){
+    private Object decodeFrame(ChannelHandlerContext ctx, ByteBuf in) throws IOException {
         //按顺序读取byteBuf
         //检查魔数
         checkMagicNumber(in);
@@ -94,13 +142,22 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder{
         int fullLength = in.readInt();
         byte messageType = in.readByte();
         byte codecType = in.readByte();
-        byte compressType = in.readByte();
+        byte compressField = in.readByte();
+        //消息中保留对方请求的压缩类型，正文是否压缩只看标志位
+        byte compressType = (byte) (compressField & ~RpcConstants.UNCOMPRESSED_FLAG);
+        boolean compressed = (compressField & RpcConstants.UNCOMPRESSED_FLAG) == 0 && compressType != CompressTypeEnum.NONE.getCode();
         int requestId = in.readInt();
+        int timeout = in.readInt();
         // 生成RpcMessage对象
         RpcMessage rpcMessage = RpcMessage.builder()
                 .codec(codecType)
+                .compress(compressType)
                 .requestId(requestId)
                 .messageType(messageType).build();
+        //以收到帧的时刻为起点换算出本地截止时间，排队等待的时间也计入其中
+        if (timeout > 0) {
+            rpcMessage.setDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+        }
 
         //判断心跳消息
         if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE) {
@@ -114,28 +171,72 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder{
         //解析数据部分
         int bodyLength = fullLength - RpcConstants.HEAD_LENGTH;
         if (bodyLength>0){
-            byte[] bytes = new byte[bodyLength];
-            in.readBytes(bytes);
-            //解压数据
-            String compressName = CompressTypeEnum.getName(compressType);
-            Compress compress = ExtensionLoader.getExtensionLoader(Compress.class).getExtension(compressName);
-            bytes = compress.decompress(bytes);
-
-            //进行反序列化
-            String codecName = SerializationTypeEnum.getName(codecType);
-            log.info("解码器名称为: [{}] ", codecName);
-            Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class).getExtension(codecName);
-            if (messageType == RpcConstants.REQUEST_TYPE){
-                RpcRequest tmp = serializer.deserialize(bytes, RpcRequest.class);
-                rpcMessage.setData(tmp);
-            }else {
-                RpcResponse tmp = serializer.deserialize(bytes, RpcResponse.class);
-                rpcMessage.setData(tmp);
+            Serializer serializer = CodecRegistry.getSerializer(codecType);
+            //在帧的正文切片上解码，压缩的正文先解压到池化缓冲区，不再拷贝出中间字节数组
+            ByteBuf body = in.readSlice(bodyLength);
+            ByteBuf data = compressed ? decompress(ctx, body, compressType) : body;
+            try {
+                rpcMessage.setData(RpcEnvelopeCodec.decode(messageType, data, serializer,
+                        ctx.channel().attr(RpcEnvelopeCodec.SERVICE_TYPES_KEY).get(), serviceProvider));
+            } finally {
+                if (data != body) {
+                    data.release();
+                }
             }
+        }
+        //字典消息不交给业务处理器，在此保存，之后的帧解压时按编号使用
+        if (messageType == RpcConstants.DICTIONARY_TYPE) {
+            saveDictionary(ctx, (RpcDictionary) rpcMessage.getData());
+            return null;
+        }
+        return rpcMessage;
+    }
 
+    /**
+     * 将正文解压到池化缓冲区，使用字典的压缩方式按字典编号解压
+     * @param ctx          通道上下文
+     * @param body         正文
+     * @param compressType 压缩类型
+     * @return io.netty.buffer.ByteBuf 解压后的正文，由调用方释放
+     **/
+    private static ByteBuf decompress(ChannelHandlerContext ctx, ByteBuf body, byte compressType) throws IOException {
+        Compress compress = CodecRegistry.getCompress(compressType);
+        ByteBuf decompressed = ctx.alloc().buffer();
+        try {
+            if (compress instanceof ZstdDictCompress) {
+                Map<Integer, ZstdDictionary> received = ctx.channel().attr(RECEIVED_DICTIONARIES).get();
+                try (InputStream in = ((ZstdDictCompress) compress).decompressStream(new ByteBufInputStream(body),
+                        id -> received == null ? null : received.get(id))) {
+                    while (decompressed.writeBytes(in, DECOMPRESS_CHUNK) != -1) {
+                        //读到流结束
+                    }
+                }
+            } else {
+                compress.decompress(body, decompressed);
+            }
+        } catch (IOException | RuntimeException e) {
+            decompressed.release();
+            throw e;
+        }
+        return decompressed;
+    }
 
+    /**
+     * 保存对方发送的字典，同一服务的新字典替换旧字典
+     * <p>
+     * 对方在同一连接上先发送新字典再发送使用它的消息，之后不会再使用旧字典，因此替换不影响已发出的消息
+     * @param ctx        通道上下文
+     * @param dictionary 字典消息
+     **/
+    private static void saveDictionary(ChannelHandlerContext ctx, RpcDictionary dictionary) {
+        Map<Integer, ZstdDictionary> received = ctx.channel().attr(RECEIVED_DICTIONARIES).get();
+        if (received == null) {
+            received = new HashMap<>();
+            ctx.channel().attr(RECEIVED_DICTIONARIES).set(received);
         }
-        return rpcMessage;
+        received.values().removeIf(d -> d.getRpcServiceName().equals(dictionary.getRpcServiceName()));
+        received.put(dictionary.getId(), new ZstdDictionary(dictionary.getRpcServiceName(), dictionary.getId(), dictionary.getContent()));
+        log.info("收到服务[{}]的压缩字典，字典编号[{}]", dictionary.getRpcServiceName(), dictionary.getId());
     }
 
     /**
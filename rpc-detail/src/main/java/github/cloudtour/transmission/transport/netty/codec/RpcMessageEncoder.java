@@ -1,36 +1,47 @@
 package github.cloudtour.transmission.transport.netty.codec;
 
 import github.cloudtour.compress.Compress;
+import github.cloudtour.compress.CompressionPolicy;
+import github.cloudtour.compress.zstd.ZstdDictCompress;
+import github.cloudtour.compress.zstd.ZstdDictionary;
+import github.cloudtour.compress.zstd.ZstdDictionaryTrainer;
 import github.cloudtour.enums.CompressTypeEnum;
-import github.cloudtour.enums.SerializationTypeEnum;
-import github.cloudtour.extension.ExtensionLoader;
+import github.cloudtour.factory.SingletonFactory;
 import github.cloudtour.serialize.Serializer;
 import github.cloudtour.transmission.constants.RpcConstants;
+import github.cloudtour.transmission.dto.RpcDictionary;
 import github.cloudtour.transmission.dto.RpcMessage;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.AttributeKey;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
  * 自定义rpc消息编码器
  * <p>
  * <pre>
- *   0     1     2     3     4        5     6     7     8         9          10      11     12  13  14   15 16
- *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+----- --+-----+-----+-------+
- *   |   magic   code        |version | full length         | messageType| codec|compress|    RequestId       |
- *   +-----------------------+--------+---------------------+-----------+-----------+-----------+------------+
- *   |                                                                                                       |
- *   |                                         body                                                          |
- *   |                                                                                                       |
- *   |                                        ... ...                                                        |
- *   +-------------------------------------------------------------------------------------------------------+
+ *   0     1     2     3     4        5     6     7     8         9          10      11     12  13  14   15  16  17  18  19 20
+ *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+----- --+-----+-----+-------+---+---+---+---+
+ *   |   magic   code        |version | full length         | messageType| codec|compress|    RequestId       |    timeout    |
+ *   +-----------------------+--------+---------------------+-----------+-----------+-----------+------------+---------------+
+ *   |                                                                                                                       |
+ *   |                                         body                                                                          |
+ *   |                                                                                                                       |
+ *   |                                        ... ...                                                                        |
+ *   +-----------------------------------------------------------------------------------------------------------------------+
  * 4B  magic code（魔法数）   1B version（版本）   4B full length（消息长度）    1B messageType（消息类型）
- * 1B codec（序列化类型）     1B compress（压缩类型）     4B  requestId（请求的Id）
- * body（object类型数据）
+ * 1B codec（序列化类型）     1B compress（压缩类型，正文未压缩时最高位置1）     4B  requestId（请求的Id）
+ * 4B timeout（请求剩余的超时毫秒数，0表示没有截止时间）
+ * body（正文，请求和响应见{@link RpcEnvelopeCodec}）
  * </pre>
  *
  * @author cloudtour
@@ -40,13 +51,26 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class RpcMessageEncoder extends MessageToByteEncoder<RpcMessage> {
 
     /**
-     *  原子整数，用来生成请求的id
-     **/
-    private static final AtomicInteger ATOMIC_INTEGER = new AtomicInteger(0);
+     * 头部中压缩类型字段相对帧起始位置的偏移量
+     */
+    private static final int COMPRESS_OFFSET = RpcConstants.MAGIC_NUMBER.length + 7;
+
+    /**
+     * 已在该连接上发送给对方的字典，key: 服务名称，value: 字典编号；只在通道的事件循环中访问
+     */
+    private static final AttributeKey<Map<String, Integer>> SENT_DICTIONARIES = AttributeKey.valueOf("sentDictionaries");
 
+    private final CompressionPolicy compressionPolicy = SingletonFactory.getInstance(CompressionPolicy.class);
+    private final ZstdDictionaryTrainer dictionaryTrainer = SingletonFactory.getInstance(ZstdDictionaryTrainer.class);
 
     @Override
-    protected void encode(ChannelHandlerContext channelHandlerContext, RpcMessage rpcMessage, ByteBuf byteBuf){
+    protected void encode(ChannelHandlerContext channelHandlerContext, RpcMessage rpcMessage, ByteBuf byteBuf) throws Exception {
+        //使用字典压缩时，先在同一连接上发送对方还没有的字典，对方解压该消息前一定已收到字典
+        String dictionaryServiceName = dictionaryServiceName(rpcMessage);
+        ZstdDictionary dictionary = dictionaryServiceName == null ? null
+                : prepareDictionary(channelHandlerContext, rpcMessage, dictionaryServiceName, byteBuf);
+        //记录帧起始位置，用于回填完整长度
+        int startIndex = byteBuf.writerIndex();
         try {
             byteBuf.writeBytes(RpcConstants.MAGIC_NUMBER);//魔数
             byteBuf.writeByte(RpcConstants.VERSION); //版本
@@ -56,38 +80,141 @@ public class RpcMessageEncoder extends MessageToByteEncoder<RpcMessage> {
             byteBuf.writeByte(messageType);     //消息类型
             byteBuf.writeByte(rpcMessage.getCodec());   //消息编码格式
             byteBuf.writeByte(rpcMessage.getCompress()); //消息压缩类型编码
-            byteBuf.writeInt(ATOMIC_INTEGER.getAndIncrement()); //请求的id
+            byteBuf.writeInt(rpcMessage.getRequestId()); //请求的id
+            byteBuf.writeInt(remainingMillis(rpcMessage.getDeadline())); //剩余超时时间
 
-            byte[] bodyBytes = null;
-            //获取总体长度
-            int fullLength = RpcConstants.HEAD_LENGTH;
-            //如果messageType不是heartbeat(心跳)消息，则fullLength=头部长度+正文长度]
+            //如果messageType不是heartbeat(心跳)消息，则写入正文
             if (messageType!= RpcConstants.HEARTBEAT_REQUEST_TYPE
                     && messageType != RpcConstants.HEARTBEAT_RESPONSE_TYPE) {
-                //序列化数据部分
-                String codecName = SerializationTypeEnum.getName(rpcMessage.getCodec());
-                log.info("使用的编码器为：[{}]",codecName);
-                Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class).getExtension(codecName);
-                bodyBytes = serializer.serialize(rpcMessage.getData());
-                //压缩数据体
-                String compressName = CompressTypeEnum.getName(rpcMessage.getCompress());
-                Compress compress = ExtensionLoader.getExtensionLoader(Compress.class).getExtension(compressName);
-                bodyBytes = compress.compress(bodyBytes);
-                fullLength += bodyBytes.length;
+                Serializer serializer = CodecRegistry.getSerializer(rpcMessage.getCodec());
+                //先序列化到池化的临时缓冲区，由压缩策略根据正文大小和该方法的压缩效果决定是否压缩
+                ByteBuf serialized = channelHandlerContext.alloc().buffer();
+                try {
+                    RpcEnvelopeCodec.encode(messageType, rpcMessage.getData(), serializer,
+                            channelHandlerContext.channel().attr(RpcEnvelopeCodec.SERVICE_TYPES_KEY).get(), serialized);
+                    if (dictionaryServiceName != null) {
+                        dictionaryTrainer.sample(dictionaryServiceName, serialized);
+                    }
+                    writeBody(rpcMessage, serialized, byteBuf, startIndex, dictionary);
+                } finally {
+                    serialized.release();
+                }
             }
 
-            if (bodyBytes!=null){//说明数据正常且不是心跳数据
-                byteBuf.writeBytes(bodyBytes);
+            //补充头部格式中的数据长度内容：完整长度=头部长度+正文长度
+            int fullLength = byteBuf.writerIndex() - startIndex;
+            byteBuf.setInt(startIndex + RpcConstants.MAGIC_NUMBER.length + 1, fullLength);
+            //字典帧和本帧都已写入输出后才记录字典已发送，编码失败时整个输出被丢弃，下次仍会先发送字典
+            if (dictionary != null) {
+                sentDictionaries(channelHandlerContext).put(dictionaryServiceName, dictionary.getId());
             }
-
-            //补充头部格式中的数据长度内容
-            int writerIndex = byteBuf.writerIndex();
-            //先定位到头部格式存放数据长度的位置
-            byteBuf.writerIndex(writerIndex-fullLength+RpcConstants.MAGIC_NUMBER.length +1);
-            byteBuf.writeInt(fullLength);
-            byteBuf.writerIndex(writerIndex);
         } catch (Exception e) {
             log.error("编码请求错误！", e);
+            //正文可能已部分写入，抛出异常使本次写入失败，避免发送残缺的帧
+            throw e;
+        }
+    }
+
+    /**
+     * 写入正文：需要压缩时经压缩流写入，压缩后没有变小则改为写入原始数据；
+     * 不压缩时在头部的压缩类型上标记未压缩，保留请求的压缩类型，使对方按该类型压缩响应
+     * @param rpcMessage 消息
+     * @param serialized 序列化后的正文
+     * @param byteBuf    帧
+     * @param startIndex 帧的起始位置
+     * @param dictionary 压缩使用的字典，为null时不使用字典
+     **/
+    private void writeBody(RpcMessage rpcMessage, ByteBuf serialized, ByteBuf byteBuf, int startIndex,
+                           ZstdDictionary dictionary) throws IOException {
+        int size = serialized.readableBytes();
+        byte compressType = rpcMessage.getCompress();
+        if (compressType != CompressTypeEnum.NONE.getCode() && compressionPolicy.shouldCompress(rpcMessage, size, dictionary != null)) {
+            Compress compress = CodecRegistry.getCompress(compressType);
+            int bodyIndex = byteBuf.writerIndex();
+            if (dictionary != null) {
+                try (OutputStream body = ((ZstdDictCompress) compress).compressStream(new ByteBufOutputStream(byteBuf), dictionary)) {
+                    serialized.getBytes(serialized.readerIndex(), body, size);
+                }
+            } else {
+                compress.compress(serialized.duplicate(), byteBuf);
+            }
+            int compressedSize = byteBuf.writerIndex() - bodyIndex;
+            compressionPolicy.record(rpcMessage, size, compressedSize);
+            if (compressedSize < size) {
+                return;
+            }
+            byteBuf.writerIndex(bodyIndex);
+        }
+        if (compressType != CompressTypeEnum.NONE.getCode()) {
+            byteBuf.setByte(startIndex + COMPRESS_OFFSET, compressType | RpcConstants.UNCOMPRESSED_FLAG);
+        }
+        byteBuf.writeBytes(serialized, serialized.readerIndex(), size);
+    }
+
+    /**
+     * 获取使用字典压缩的消息所属的服务名称
+     * @param rpcMessage 消息
+     * @return java.lang.String 不使用字典压缩或没有方法标识时返回null
+     **/
+    private static String dictionaryServiceName(RpcMessage rpcMessage) {
+        String methodKey = rpcMessage.getMethodKey();
+        if (rpcMessage.getCompress() != CompressTypeEnum.ZSTD_DICT.getCode() || methodKey == null) {
+            return null;
+        }
+        int index = methodKey.indexOf('#');
+        return index < 0 ? null : methodKey.substring(0, index);
+    }
+
+    /**
+     * 获取服务的当前字典，对方还没有该字典时先写入一条字典消息；由调用方在整帧写入后记录已发送
+     * @param ctx            通道上下文
+     * @param rpcMessage     要发送的消息
+     * @param rpcServiceName 服务名称
+     * @param byteBuf        输出缓冲区
+     * @return github.cloudtour.compress.zstd.ZstdDictionary 还没有训练出字典时返回null
+     **/
+    private ZstdDictionary prepareDictionary(ChannelHandlerContext ctx, RpcMessage rpcMessage, String rpcServiceName,
+                                             ByteBuf byteBuf) throws Exception {
+        ZstdDictionary dictionary = dictionaryTrainer.current(rpcServiceName);
+        if (dictionary == null) {
+            return null;
+        }
+        Integer sentId = sentDictionaries(ctx).get(rpcServiceName);
+        if (sentId == null || sentId != dictionary.getId()) {
+            RpcMessage dictionaryMessage = RpcMessage.builder()
+                    .messageType(RpcConstants.DICTIONARY_TYPE)
+                    .codec(rpcMessage.getCodec())
+                    .compress(CompressTypeEnum.NONE.getCode())
+                    .data(new RpcDictionary(rpcServiceName, dictionary.getId(), dictionary.getContent())).build();
+            encode(ctx, dictionaryMessage, byteBuf);
+        }
+        return dictionary;
+    }
+
+    /**
+     * 获取该连接上已发送给对方的字典
+     * @param ctx 通道上下文
+     * @return java.util.Map<java.lang.String,java.lang.Integer> key: 服务名称，value: 字典编号
+     **/
+    private static Map<String, Integer> sentDictionaries(ChannelHandlerContext ctx) {
+        Map<String, Integer> sent = ctx.channel().attr(SENT_DICTIONARIES).get();
+        if (sent == null) {
+            sent = new HashMap<>();
+            ctx.channel().attr(SENT_DICTIONARIES).set(sent);
+        }
+        return sent;
+    }
+
+    /**
+     * 将本地截止时间换算为剩余毫秒数
+     * @param deadline 截止时间(System.nanoTime()时基)，0表示没有截止时间
+     * @return int 剩余毫秒数，已过期时至少为1，使对端仍能识别并丢弃该请求
+     **/
+    private static int remainingMillis(long deadline) {
+        if (deadline == 0) {
+            return 0;
         }
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        return (int) Math.max(1, Math.min(remaining, Integer.MAX_VALUE));
     }
 }
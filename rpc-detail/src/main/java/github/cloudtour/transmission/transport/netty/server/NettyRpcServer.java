@@ -2,21 +2,25 @@ package github.cloudtour.transmission.transport.netty.server;
 
 import github.cloudtour.config.CustomShutdownHook;
 import github.cloudtour.config.RpcServiceConfig;
+import github.cloudtour.enums.DispatchModeEnum;
+import github.cloudtour.enums.RpcConfigEnum;
 import github.cloudtour.factory.SingletonFactory;
 import github.cloudtour.provider.ServiceProvider;
 import github.cloudtour.provider.impl.ZkServiceProviderImpl;
 import github.cloudtour.threadpool.ThreadPoolFactoryUtil;
+import github.cloudtour.transmission.transport.netty.NettyTransportUtil;
 import github.cloudtour.transmission.transport.netty.codec.RpcMessageDecoder;
 import github.cloudtour.transmission.transport.netty.codec.RpcMessageEncoder;
+import github.cloudtour.utils.RpcConfigUtil;
 import github.cloudtour.utils.RuntimeUtil;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
@@ -26,6 +30,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -40,6 +46,22 @@ public class NettyRpcServer {
 
     public static final int PORT = 9998;
 
+    /**
+     * 使用SO_REUSEPORT绑定同一端口的监听通道数，由内核在各监听通道之间分发连接，仅epoll传输下生效
+     */
+    private static final int REUSE_PORT_LISTENERS = Math.max(1, RpcConfigUtil.getInt(RpcConfigEnum.SERVER_REUSE_PORT_LISTENERS, 1));
+
+    /**
+     * 请求分发模式，通过rpc.server.dispatch.mode配置，默认在固定大小的执行器组上处理请求
+     */
+    private static final DispatchModeEnum DISPATCH_MODE = DispatchModeEnum.getByName(
+            RpcConfigUtil.getString(RpcConfigEnum.SERVER_DISPATCH_MODE, DispatchModeEnum.EXECUTOR_GROUP.getName()));
+
+    /**
+     * 虚拟线程分发模式下的全局最大并发数
+     */
+    private static final int MAX_CONCURRENCY = RpcConfigUtil.getInt(RpcConfigEnum.SERVER_MAX_CONCURRENCY, 10000);
+
     //存储和提供服务对象。
     private final ServiceProvider serviceProvider = SingletonFactory.getInstance(ZkServiceProviderImpl.class);
 
@@ -47,21 +69,34 @@ public class NettyRpcServer {
         serviceProvider.publishService(rpcServiceConfig);
     }
 
+    /**
+     * 获取服务端统计指标，如因超过截止时间而被丢弃的请求数
+     * @return github.cloudtour.transmission.transport.netty.server.RpcServerMetrics
+     **/
+    public RpcServerMetrics getMetrics() {
+        return SingletonFactory.getInstance(RpcServerMetrics.class);
+    }
+
     @SneakyThrows
     public void start() {
         //先注销所有服务
         CustomShutdownHook.getCustomShutdownHook().clearAll();
         String host = InetAddress.getLocalHost().getHostAddress();
-        NioEventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        NioEventLoopGroup workerGroup = new NioEventLoopGroup();
-        DefaultEventExecutorGroup serviceHandlerGroup = new DefaultEventExecutorGroup(
+        int listeners = NettyTransportUtil.isEpoll() ? REUSE_PORT_LISTENERS : 1;
+        //每个监听通道独占一个boss线程
+        EventLoopGroup bossGroup = NettyTransportUtil.newEventLoopGroup(listeners, null);
+        EventLoopGroup workerGroup = NettyTransportUtil.newEventLoopGroup(0, null);
+        //虚拟线程模式下处理器直接运行在I/O线程上，由分发器将每个请求交给一个虚拟线程；JDK不支持时回退到执行器组
+        VirtualThreadDispatcher dispatcher = DISPATCH_MODE == DispatchModeEnum.VIRTUAL_THREAD ? VirtualThreadDispatcher.create(MAX_CONCURRENCY) : null;
+        DefaultEventExecutorGroup serviceHandlerGroup = dispatcher != null ? null : new DefaultEventExecutorGroup(
                 RuntimeUtil.cpus() * 2,
                 ThreadPoolFactoryUtil.createThreadFactory("service-handler-group", false)
         );
+        log.info("服务端请求分发模式: [{}]", dispatcher != null ? DispatchModeEnum.VIRTUAL_THREAD.getName() : DispatchModeEnum.EXECUTOR_GROUP.getName());
         try {
             ServerBootstrap b = new ServerBootstrap();
             b.group(bossGroup,workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(NettyTransportUtil.serverSocketChannelClass())
                     // TCP默认开启了 Nagle 算法，该算法的作用是尽可能的发送大数据快，减少网络传输。TCP_NODELAY 参数的作用就是控制是否启用 Nagle 算法。
                     .childOption(ChannelOption.TCP_NODELAY, true)
                     // 是否开启 TCP 底层心跳机制
@@ -73,26 +108,45 @@ public class NettyRpcServer {
                         protected void initChannel(SocketChannel socketChannel) throws Exception {
 
                             ChannelPipeline p = socketChannel.pipeline();
+                            NettyTransportUtil.configureFlushMode(p);
                             // 30 秒之内没有收到客户端请求的话就关闭连接
                             p.addLast(new IdleStateHandler(30, 0, 0, TimeUnit.SECONDS));
                             p.addLast(new RpcMessageEncoder());
-                            p.addLast(new RpcMessageDecoder());
-                            p.addLast(serviceHandlerGroup, new NettyRpcServerHandler());
+                            p.addLast(new RpcMessageDecoder(serviceProvider));
+                            if (dispatcher != null) {
+                                p.addLast(new NettyRpcServerHandler(dispatcher));
+                            } else {
+                                p.addLast(serviceHandlerGroup, new NettyRpcServerHandler());
+                            }
 
                         }
                     });
 
+            if (listeners > 1) {
+                b.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
             //绑定端口，同步等待绑定成功
-            ChannelFuture f = b.bind(host, PORT).sync();
+            List<ChannelFuture> bindFutures = new ArrayList<>(listeners);
+            for (int i = 0; i < listeners; i++) {
+                bindFutures.add(b.bind(host, PORT).sync());
+            }
+            log.info("服务端已在[{}:{}]上启动{}个监听通道", host, PORT, listeners);
             //等待服务端监听端口关闭
-            f.channel().closeFuture().sync();
+            for (ChannelFuture f : bindFutures) {
+                f.channel().closeFuture().sync();
+            }
         } catch (InterruptedException e) {
             log.error("启动服务器时发生异常:", e);
         } finally {
             log.error("关闭bossGroup和workerGroup");
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
-            serviceHandlerGroup.shutdownGracefully();
+            if (serviceHandlerGroup != null) {
+                serviceHandlerGroup.shutdownGracefully();
+            }
+            if (dispatcher != null) {
+                dispatcher.shutdown();
+            }
         }
     }
 }
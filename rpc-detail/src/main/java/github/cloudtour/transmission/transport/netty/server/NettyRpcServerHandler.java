@@ -1,14 +1,21 @@
 package github.cloudtour.transmission.transport.netty.server;
 
-import github.cloudtour.enums.CompressTypeEnum;
 import github.cloudtour.enums.RpcResponseCodeEnum;
-import github.cloudtour.enums.SerializationTypeEnum;
 import github.cloudtour.factory.SingletonFactory;
+import github.cloudtour.provider.MethodInvoker;
+import github.cloudtour.provider.ServiceProvider;
+import github.cloudtour.provider.impl.ZkServiceProviderImpl;
+import github.cloudtour.serialize.ServiceTypeRegistry;
+import github.cloudtour.serialize.ServiceTypeTable;
 import github.cloudtour.transmission.constants.RpcConstants;
 import github.cloudtour.transmission.dto.RpcMessage;
+import github.cloudtour.transmission.dto.RpcCompactRequest;
+import github.cloudtour.transmission.dto.RpcHandshake;
 import github.cloudtour.transmission.dto.RpcRequest;
 import github.cloudtour.transmission.dto.RpcResponse;
 import github.cloudtour.transmission.handler.RpcRequestHandler;
+import github.cloudtour.transmission.transport.netty.codec.CodecNegotiator;
+import github.cloudtour.transmission.transport.netty.codec.RpcEnvelopeCodec;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
@@ -17,6 +24,10 @@ import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
 /**
  * 自定义客户端ChannelHandler以处理客户端发送的数据
  *
@@ -26,38 +37,85 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
     private final RpcRequestHandler rpcRequestHandler;
+    private final RpcServerMetrics rpcServerMetrics;
+    private final ServiceProvider serviceProvider;
+    private final ServiceTypeRegistry serviceTypeRegistry;
+    /**
+     * 虚拟线程分发器，为null时在当前线程处理请求
+     */
+    private final VirtualThreadDispatcher dispatcher;
 
     public NettyRpcServerHandler() {
+        this(null);
+    }
+
+    public NettyRpcServerHandler(VirtualThreadDispatcher dispatcher) {
         this.rpcRequestHandler = SingletonFactory.getInstance(RpcRequestHandler.class);
+        this.rpcServerMetrics = SingletonFactory.getInstance(RpcServerMetrics.class);
+        this.serviceProvider = SingletonFactory.getInstance(ZkServiceProviderImpl.class);
+        this.serviceTypeRegistry = SingletonFactory.getInstance(ServiceTypeRegistry.class);
+        this.dispatcher = dispatcher;
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         try {
             if (msg instanceof RpcMessage){
-                log.info("服务器接收消息: [{}] ", msg);
+                log.debug("服务器接收消息: [{}] ", msg);
                 byte messageType = ((RpcMessage) msg).getMessageType();
-                //构造返回消息
-                RpcMessage rpcMessage = RpcMessage.builder().codec(SerializationTypeEnum.HESSIAN.getCode())
-                        .compress(CompressTypeEnum.GZIP.getCode()).build();
+                //构造返回消息，使用与请求相同的序列化方式和压缩方式，客户端只会使用双方都支持的编码
+                RpcMessage rpcMessage = RpcMessage.builder().codec(((RpcMessage) msg).getCodec())
+                        .compress(((RpcMessage) msg).getCompress())
+                        .requestId(((RpcMessage) msg).getRequestId()).build();
                 if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE){//若是心跳则构建心跳消息
                     rpcMessage.setMessageType(RpcConstants.HEARTBEAT_RESPONSE_TYPE);
                     rpcMessage.setData(RpcConstants.PONG);
+                }else if (messageType == RpcConstants.HANDSHAKE_REQUEST_TYPE){//握手时返回协商结果、已导出方法的编号和服务类型编号表
+                    RpcHandshake offered = (RpcHandshake) ((RpcMessage) msg).getData();
+                    //该连接之后的请求和响应按此时的编号表序列化，客户端收到握手响应后使用相同的编号表
+                    ServiceTypeTable typeTable = serviceTypeRegistry.getTable();
+                    ctx.channel().attr(RpcEnvelopeCodec.SERVICE_TYPES_KEY).set(typeTable);
+                    rpcMessage.setMessageType(RpcConstants.HANDSHAKE_RESPONSE_TYPE);
+                    rpcMessage.setData(RpcHandshake.builder()
+                            .serializer(CodecNegotiator.chooseSerializer(offered == null ? null : offered.getSerializers()))
+                            .compress(CodecNegotiator.chooseCompress(offered == null ? null : offered.getCompressors()))
+                            .serializers(CodecNegotiator.serializers())
+                            .compressors(CodecNegotiator.compressors())
+                            .methodIds(serviceProvider.getMethodIds())
+                            .serviceSerializers(serviceProvider.getServiceSerializers())
+                            .serviceCompressors(serviceProvider.getServiceCompressors())
+                            .serviceTypes(new ArrayList<>(typeTable.getNames())).build());
                 }else {//处理rpc请求
-                    RpcRequest rpcRequest = (RpcRequest) ((RpcMessage) msg).getData();
-                    //执行目标方法（客户端需要执行的方法）并返回方法结果
-                    Object result = rpcRequestHandler.handle(rpcRequest);
-                    log.info("服务器获取结果: [{}]", result.toString());
+                    Object data = ((RpcMessage) msg).getData();
+                    String rpcServiceName;
+                    Supplier<CompletableFuture<Object>> invocation;
+                    if (data instanceof RpcCompactRequest) {
+                        RpcCompactRequest rpcCompactRequest = (RpcCompactRequest) data;
+                        MethodInvoker invoker = serviceProvider.getMethodInvoker(rpcCompactRequest.getMethodId());
+                        rpcServiceName = invoker != null ? invoker.getRpcServiceName() : "methodId:" + rpcCompactRequest.getMethodId();
+                        rpcMessage.setMethodKey(invoker != null ? invoker.getMethodKey() : null);
+                        invocation = () -> rpcRequestHandler.handle(rpcCompactRequest);
+                    } else {
+                        RpcRequest rpcRequest = (RpcRequest) data;
+                        rpcServiceName = rpcRequest.getRpcServiceName();
+                        //只有匹配到已发布方法的请求才带方法标识，压缩统计和字典采样不会为任意名称分配状态
+                        rpcMessage.setMethodKey(rpcRequest.getParamTypes() != null ? rpcRequest.getMethodKey() : null);
+                        invocation = () -> rpcRequestHandler.handle(rpcRequest);
+                    }
+                    long deadline = ((RpcMessage) msg).getDeadline();
                     rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
-                    if (ctx.channel().isActive() && ctx.channel().isWritable()) {
-                        RpcResponse<Object> rpcResponse = RpcResponse.success(result, rpcRequest.getRequestId());
-                        rpcMessage.setData(rpcResponse);
+                    if (dispatcher != null) {
+                        //超出并发限制或执行器拒绝任务时直接返回失败响应，不再为请求创建虚拟线程，也不关闭连接
+                        if (!dispatcher.dispatch(rpcServiceName, () -> processRequest(ctx, rpcMessage, rpcServiceName, invocation, deadline))) {
+                            rpcServerMetrics.recordShed(rpcServiceName);
+                            log.warn("服务端繁忙，拒绝请求: [{}]", rpcServiceName);
+                            rpcMessage.setData(RpcResponse.fail(RpcResponseCodeEnum.OVERLOADED));
+                            ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+                        }
                     } else {
-                        RpcResponse<Object> rpcResponse = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
-                        rpcMessage.setData(rpcResponse);
-                        log.error("无法写入，消息已删除");
+                        processRequest(ctx, rpcMessage, rpcServiceName, invocation, deadline);
                     }
-
+                    return;
                 }
                 ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
             }
@@ -67,6 +125,38 @@ public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * 执行目标方法（客户端需要执行的方法），方法结果可用时再写回响应，异步方法不占用当前线程
+     * @param ctx        通道上下文
+     * @param rpcMessage     响应消息
+     * @param rpcServiceName 请求的服务名称
+     * @param invocation     执行目标方法的调用
+     * @param deadline       请求的截止时间，0表示没有截止时间
+     * @return java.util.concurrent.CompletableFuture<?> 请求处理完成时完成
+     **/
+    private CompletableFuture<?> processRequest(ChannelHandlerContext ctx, RpcMessage rpcMessage, String rpcServiceName,
+                                                Supplier<CompletableFuture<Object>> invocation, long deadline) {
+        //请求在队列中等待期间已超过截止时间，客户端已放弃等待，直接丢弃而不再执行
+        if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+            rpcServerMetrics.recordShed(rpcServiceName);
+            log.warn("请求已超过截止时间，丢弃请求: [{}]", rpcServiceName);
+            return CompletableFuture.completedFuture(null);
+        }
+        return invocation.get().whenComplete((result, cause) -> {
+            if (cause != null) {
+                log.error("服务调用失败: [{}]", rpcServiceName, cause);
+                rpcMessage.setData(RpcResponse.fail(RpcResponseCodeEnum.FAIL));
+            } else if (ctx.channel().isActive() && ctx.channel().isWritable()) {
+                log.debug("服务器获取结果: [{}]", result);
+                rpcMessage.setData(RpcResponse.success(result));
+            } else {
+                rpcMessage.setData(RpcResponse.fail(RpcResponseCodeEnum.FAIL));
+                log.error("无法写入，消息已删除");
+            }
+            ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        });
+    }
+
     /**
      *  处理空闲事件
      **/
@@ -0,0 +1,60 @@
+package github.cloudtour.transmission.transport.netty.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务端统计指标--记录因超过截止时间或超出并发限制而被丢弃(shed)的请求数
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+public class RpcServerMetrics {
+    /**
+     * 丢弃的请求总数
+     */
+    private final LongAdder shedRequests = new LongAdder();
+    /**
+     * key: rpc服务名称  value: 该服务丢弃的请求数
+     */
+    private final Map<String, LongAdder> shedRequestsByService = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次请求丢弃
+     * @param rpcServiceName rpc服务名称
+     **/
+    public void recordShed(String rpcServiceName) {
+        shedRequests.increment();
+        shedRequestsByService.computeIfAbsent(rpcServiceName, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * 获取丢弃的请求总数
+     * @return long
+     **/
+    public long getShedCount() {
+        return shedRequests.sum();
+    }
+
+    /**
+     * 获取某个服务丢弃的请求数
+     * @param rpcServiceName rpc服务名称
+     * @return long
+     **/
+    public long getShedCount(String rpcServiceName) {
+        LongAdder counter = shedRequestsByService.get(rpcServiceName);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * 获取各服务丢弃请求数的快照
+     * @return java.util.Map<java.lang.String,java.lang.Long>
+     **/
+    public Map<String, Long> getShedCounts() {
+        Map<String, Long> snapshot = new HashMap<>();
+        shedRequestsByService.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        return snapshot;
+    }
+}
@@ -0,0 +1,124 @@
+package github.cloudtour.transmission.transport.netty.server;
+
+import github.cloudtour.config.RpcServiceConfig;
+import github.cloudtour.factory.SingletonFactory;
+import github.cloudtour.provider.ServiceProvider;
+import github.cloudtour.provider.impl.ZkServiceProviderImpl;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * 虚拟线程请求分发器--每个请求在独立的虚拟线程上处理，阻塞的服务方法不会占用平台线程
+ * <p>
+ * 全局并发数和每个服务的并发数分别由信号量限制，许可在I/O线程上创建虚拟线程之前获取，
+ * 没有空闲许可的请求直接拒绝，不再创建虚拟线程排队，过载时内存占用不会无限增长；
+ * 许可在请求处理完成(异步方法的结果完成)后释放
+ *
+ * @author cloudtour
+ * @version 1.0
+ */
+@Slf4j
+public class VirtualThreadDispatcher {
+
+    private final ExecutorService executor;
+    private final Semaphore globalPermits;
+    /**
+     * key: rpc服务名称，value: 该服务的并发许可，未限制并发的服务不在其中
+     */
+    private final Map<String, Semaphore> servicePermits = new ConcurrentHashMap<>();
+    private final ServiceProvider serviceProvider;
+
+    private VirtualThreadDispatcher(ExecutorService executor, int maxConcurrency) {
+        this.executor = executor;
+        this.globalPermits = new Semaphore(maxConcurrency);
+        this.serviceProvider = SingletonFactory.getInstance(ZkServiceProviderImpl.class);
+    }
+
+    /**
+     * 创建虚拟线程分发器，当前JDK不支持虚拟线程时返回null
+     * @param maxConcurrency 全局最大并发数
+     * @return github.cloudtour.transmission.transport.netty.server.VirtualThreadDispatcher
+     **/
+    public static VirtualThreadDispatcher create(int maxConcurrency) {
+        try {
+            //通过反射调用，保持对JDK 8的编译兼容
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new VirtualThreadDispatcher(executor, maxConcurrency);
+        } catch (ReflectiveOperationException e) {
+            log.warn("当前JDK不支持虚拟线程: [{}]", System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    /**
+     * 获取并发许可后在虚拟线程上执行请求处理任务，在I/O线程上调用
+     * @param rpcServiceName rpc服务名称
+     * @param task           请求处理任务，返回的future完成时释放许可
+     * @return boolean 没有空闲的全局或服务并发许可，或执行器拒绝任务(已关闭)时返回false，任务不会执行
+     **/
+    public boolean dispatch(String rpcServiceName, Supplier<CompletableFuture<?>> task) {
+        if (!globalPermits.tryAcquire()) {
+            return false;
+        }
+        Semaphore permits = servicePermits(rpcServiceName);
+        if (permits != null && !permits.tryAcquire()) {
+            globalPermits.release();
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                CompletableFuture<?> future;
+                try {
+                    future = task.get();
+                } catch (RuntimeException e) {
+                    release(permits);
+                    throw e;
+                }
+                future.whenComplete((result, cause) -> release(permits));
+            });
+        } catch (RejectedExecutionException e) {
+            //执行器已关闭时同样作为过载处理，由调用方返回失败响应，不影响该连接上的其他请求
+            release(permits);
+            log.warn("虚拟线程执行器拒绝任务: [{}]", rpcServiceName);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 关闭执行器
+     **/
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void release(Semaphore permits) {
+        if (permits != null) {
+            permits.release();
+        }
+        globalPermits.release();
+    }
+
+    /**
+     * 获取服务的并发许可，服务未配置maxConcurrency时返回null
+     **/
+    private Semaphore servicePermits(String rpcServiceName) {
+        Semaphore permits = servicePermits.get(rpcServiceName);
+        if (permits != null) {
+            return permits;
+        }
+        RpcServiceConfig rpcServiceConfig = serviceProvider.getServiceConfig(rpcServiceName);
+        if (rpcServiceConfig == null || rpcServiceConfig.getMaxConcurrency() <= 0) {
+            return null;
+        }
+        return servicePermits.computeIfAbsent(rpcServiceName, k -> new Semaphore(rpcServiceConfig.getMaxConcurrency()));
+    }
+}
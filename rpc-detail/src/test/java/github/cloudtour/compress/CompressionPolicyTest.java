@@ -0,0 +1,88 @@
+package github.cloudtour.compress;
+
+import github.cloudtour.transmission.constants.RpcConstants;
+import github.cloudtour.transmission.dto.RpcMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 压缩策略测试：大小阈值和按方法停止压缩，使用默认配置
+ * @author cloudtour
+ * @version 1.0
+ */
+@RunWith(JUnitPlatform.class)
+public class CompressionPolicyTest {
+
+    private static RpcMessage message(byte messageType, String methodKey) {
+        return RpcMessage.builder().messageType(messageType).methodKey(methodKey).build();
+    }
+
+    @Test
+    public void skipBodiesBelowThreshold() {
+        CompressionPolicy policy = new CompressionPolicy();
+        RpcMessage rpcMessage = message(RpcConstants.REQUEST_TYPE, "svc#m()");
+        assertFalse(policy.shouldCompress(rpcMessage, 511, false));
+        assertTrue(policy.shouldCompress(rpcMessage, 512, false));
+        //字典压缩的阈值更低
+        assertFalse(policy.shouldCompress(rpcMessage, 63, true));
+        assertTrue(policy.shouldCompress(rpcMessage, 64, true));
+    }
+
+    @Test
+    public void stopCompressingIncompressibleMethodAndProbe() {
+        CompressionPolicy policy = new CompressionPolicy();
+        RpcMessage rpcMessage = message(RpcConstants.REQUEST_TYPE, "svc#m()");
+        for (int i = 0; i < 15; i++) {
+            policy.record(rpcMessage, 1000, 1000);
+            assertTrue(policy.shouldCompress(rpcMessage, 1000, false));
+        }
+        policy.record(rpcMessage, 1000, 1000);
+        int probes = 0;
+        for (int i = 0; i < 256; i++) {
+            if (policy.shouldCompress(rpcMessage, 1000, false)) {
+                probes++;
+            }
+        }
+        assertEquals(1, probes);
+        //负载重新变得可压缩后恢复压缩
+        for (int i = 0; i < 16; i++) {
+            policy.record(rpcMessage, 1000, 100);
+        }
+        assertTrue(policy.shouldCompress(rpcMessage, 1000, false));
+    }
+
+    @Test
+    public void keepCompressingCompressibleMethod() {
+        CompressionPolicy policy = new CompressionPolicy();
+        RpcMessage rpcMessage = message(RpcConstants.RESPONSE_TYPE, "svc#m()");
+        for (int i = 0; i < 100; i++) {
+            policy.record(rpcMessage, 1000, 300);
+            assertTrue(policy.shouldCompress(rpcMessage, 1000, false));
+        }
+    }
+
+    @Test
+    public void trackRequestsAndResponsesSeparately() {
+        CompressionPolicy policy = new CompressionPolicy();
+        RpcMessage request = message(RpcConstants.REQUEST_TYPE, "svc#m()");
+        RpcMessage response = message(RpcConstants.RESPONSE_TYPE, "svc#m()");
+        for (int i = 0; i < 16; i++) {
+            policy.record(response, 1000, 1000);
+        }
+        assertFalse(policy.shouldCompress(response, 1000, false));
+        assertTrue(policy.shouldCompress(request, 1000, false));
+    }
+
+    @Test
+    public void messagesWithoutMethodKeyAreNotTracked() {
+        CompressionPolicy policy = new CompressionPolicy();
+        RpcMessage rpcMessage = message(RpcConstants.RESPONSE_TYPE, null);
+        for (int i = 0; i < 32; i++) {
+            policy.record(rpcMessage, 1000, 1000);
+        }
+        assertTrue(policy.shouldCompress(rpcMessage, 1000, false));
+    }
+}
@@ -0,0 +1,137 @@
+package github.cloudtour.compress.gzip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Gzip压缩测试：缓冲区方式的输出与JDK的GZIPInputStream、GZIPOutputStream互通
+ * @author cloudtour
+ * @version 1.0
+ */
+@RunWith(JUnitPlatform.class)
+public class GzipCompressTest {
+
+    private final GzipCompress gzipCompress = new GzipCompress();
+
+    private static byte[] data(int size) {
+        byte[] bytes = new byte[size];
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return bytes;
+    }
+
+    private static ByteBuf buffer(boolean direct) {
+        return direct ? PooledByteBufAllocator.DEFAULT.directBuffer() : Unpooled.buffer();
+    }
+
+    private static byte[] toByteArray(ByteBuf buf) {
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+        buf.release();
+        return bytes;
+    }
+
+    private static byte[] jdkCompress(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] jdkDecompress(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = gzip.read(buffer)) > -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] compress(byte[] bytes, boolean direct) throws IOException {
+        ByteBuf src = buffer(direct).writeBytes(bytes);
+        ByteBuf dst = buffer(direct);
+        try {
+            gzipCompress.compress(src, dst);
+            assertFalse(src.isReadable());
+        } finally {
+            src.release();
+        }
+        return toByteArray(dst);
+    }
+
+    private byte[] decompress(byte[] bytes, boolean direct) throws IOException {
+        ByteBuf src = buffer(direct).writeBytes(bytes);
+        ByteBuf dst = buffer(direct);
+        try {
+            gzipCompress.decompress(src, dst);
+        } catch (IOException e) {
+            dst.release();
+            throw e;
+        } finally {
+            src.release();
+        }
+        return toByteArray(dst);
+    }
+
+    @Test
+    public void jdkReadsBufferCompressedData() throws IOException {
+        for (boolean direct : new boolean[]{false, true}) {
+            for (int size : new int[]{0, 1, 4096, 100_000}) {
+                byte[] bytes = data(size);
+                assertArrayEquals(bytes, jdkDecompress(compress(bytes, direct)), "direct=" + direct + " size=" + size);
+            }
+        }
+    }
+
+    @Test
+    public void bufferDecompressesJdkCompressedData() throws IOException {
+        for (boolean direct : new boolean[]{false, true}) {
+            for (int size : new int[]{0, 1, 4096, 100_000}) {
+                byte[] bytes = data(size);
+                assertArrayEquals(bytes, decompress(jdkCompress(bytes), direct), "direct=" + direct + " size=" + size);
+            }
+        }
+    }
+
+    @Test
+    public void byteArrayMethodsRoundTrip() throws IOException {
+        byte[] bytes = data(10_000);
+        assertArrayEquals(bytes, gzipCompress.decompress(gzipCompress.compress(bytes)));
+        assertArrayEquals(bytes, jdkDecompress(gzipCompress.compress(bytes)));
+        assertArrayEquals(new byte[0], gzipCompress.decompress(gzipCompress.compress(new byte[0])));
+    }
+
+    @Test
+    public void rejectCorruptedData() throws IOException {
+        byte[] compressed = compress(data(1000), false);
+        //破坏尾部的CRC32
+        compressed[compressed.length - 8] ^= 1;
+        assertThrows(ZipException.class, () -> decompress(compressed, false));
+        //截断的数据
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        assertThrows(IOException.class, () -> decompress(truncated, true));
+    }
+}
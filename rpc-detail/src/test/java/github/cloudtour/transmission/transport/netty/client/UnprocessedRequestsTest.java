@@ -0,0 +1,102 @@
+package github.cloudtour.transmission.transport.netty.client;
+
+import github.cloudtour.enums.RpcErrorMessageEnum;
+import github.cloudtour.exception.RpcException;
+import github.cloudtour.transmission.dto.RpcResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 未完成请求容器测试：槽位复用、超时和迟到的响应
+ * @author cloudtour
+ * @version 1.0
+ */
+@RunWith(JUnitPlatform.class)
+public class UnprocessedRequestsTest {
+
+    @Test
+    public void completeByRequestId() throws Exception {
+        UnprocessedRequests unprocessedRequests = new UnprocessedRequests(4);
+        CompletableFuture<RpcResponse<Object>> future = new CompletableFuture<>();
+        int requestId = unprocessedRequests.put(future, 0);
+        assertEquals(1, unprocessedRequests.size());
+
+        RpcResponse<Object> rpcResponse = RpcResponse.success("ok");
+        unprocessedRequests.complete(requestId, rpcResponse);
+        assertSame(rpcResponse, future.get());
+        assertEquals(0, unprocessedRequests.size());
+    }
+
+    @Test
+    public void reuseSlotAfterComplete() {
+        UnprocessedRequests unprocessedRequests = new UnprocessedRequests(2);
+        int first = unprocessedRequests.put(new CompletableFuture<>(), 0);
+        unprocessedRequests.complete(first, RpcResponse.success(null));
+        int second = unprocessedRequests.put(new CompletableFuture<>(), 0);
+        //第三个请求的id回绕到第一个请求释放的槽位
+        CompletableFuture<RpcResponse<Object>> third = new CompletableFuture<>();
+        int thirdId = unprocessedRequests.put(third, 0);
+        assertNotEquals(first, thirdId);
+        assertEquals(first & 1, thirdId & 1);
+        assertNotEquals(second & 1, thirdId & 1);
+        assertEquals(2, unprocessedRequests.size());
+    }
+
+    @Test
+    public void rejectWhenAllSlotsTaken() {
+        UnprocessedRequests unprocessedRequests = new UnprocessedRequests(2);
+        unprocessedRequests.put(new CompletableFuture<>(), 0);
+        unprocessedRequests.put(new CompletableFuture<>(), 0);
+        RpcException e = assertThrows(RpcException.class, () -> unprocessedRequests.put(new CompletableFuture<>(), 0));
+        assertTrue(e.getMessage().startsWith(RpcErrorMessageEnum.TOO_MANY_PENDING_REQUESTS.getMessage()));
+    }
+
+    @Test
+    public void timeoutFailsRequestAndFreesSlot() throws Exception {
+        UnprocessedRequests unprocessedRequests = new UnprocessedRequests(4);
+        CompletableFuture<RpcResponse<Object>> future = new CompletableFuture<>();
+        unprocessedRequests.put(future, 50);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RpcException);
+        assertTrue(e.getCause().getMessage().startsWith(RpcErrorMessageEnum.REQUEST_TIMEOUT.getMessage()));
+        assertEquals(0, unprocessedRequests.size());
+    }
+
+    @Test
+    public void dropLateResponseForReusedSlot() {
+        UnprocessedRequests unprocessedRequests = new UnprocessedRequests(2);
+        CompletableFuture<RpcResponse<Object>> expired = new CompletableFuture<>();
+        int expiredId = unprocessedRequests.put(expired, 0);
+        unprocessedRequests.fail(expiredId, new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT));
+        unprocessedRequests.put(new CompletableFuture<>(), 0);
+        CompletableFuture<RpcResponse<Object>> current = new CompletableFuture<>();
+        int currentId = unprocessedRequests.put(current, 0);
+        assertEquals(expiredId & 1, currentId & 1);
+
+        //过期请求的响应迟到，槽位已被新请求占用，不能完成新请求
+        unprocessedRequests.complete(expiredId, RpcResponse.success("late"));
+        assertFalse(current.isDone());
+        assertTrue(expired.isCompletedExceptionally());
+        assertEquals(2, unprocessedRequests.size());
+    }
+
+    @Test
+    public void failAllOnChannelClose() {
+        UnprocessedRequests unprocessedRequests = new UnprocessedRequests(4);
+        CompletableFuture<RpcResponse<Object>> first = new CompletableFuture<>();
+        CompletableFuture<RpcResponse<Object>> second = new CompletableFuture<>();
+        unprocessedRequests.put(first, 1000);
+        unprocessedRequests.put(second, 0);
+        unprocessedRequests.failAll(new RpcException(RpcErrorMessageEnum.CHANNEL_CLOSED));
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals(0, unprocessedRequests.size());
+    }
+}
@@ -0,0 +1,239 @@
+package github.cloudtour.transmission.transport.netty.codec;
+
+import github.cloudtour.config.RpcServiceConfig;
+import github.cloudtour.factory.SingletonFactory;
+import github.cloudtour.provider.MethodInvoker;
+import github.cloudtour.provider.ServiceProvider;
+import github.cloudtour.serialize.Serializer;
+import github.cloudtour.serialize.ServiceTypeRegistry;
+import github.cloudtour.serialize.ServiceTypeTable;
+import github.cloudtour.serialize.kyro.KryoSerializer;
+import github.cloudtour.transmission.constants.RpcConstants;
+import github.cloudtour.transmission.dto.RpcCompactRequest;
+import github.cloudtour.transmission.dto.RpcRequest;
+import github.cloudtour.transmission.dto.RpcResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 消息正文编解码测试：请求、精简请求和响应的往返，以及请求参数类型按已发布方法的签名匹配
+ * @author cloudtour
+ * @version 1.0
+ */
+@RunWith(JUnitPlatform.class)
+public class RpcEnvelopeCodecTest {
+
+    private static final String SERVICE_NAME = EchoService.class.getName() + "g1" + "v1";
+
+    private final Serializer serializer = new KryoSerializer();
+    private final StubServiceProvider serviceProvider = new StubServiceProvider();
+
+    public interface EchoService {
+        String echo(String s, int times);
+    }
+
+    public static class EchoServiceImpl implements EchoService {
+        @Override
+        public String echo(String s, int times) {
+            return s;
+        }
+    }
+
+    /**
+     * 只发布了EchoService#echo的服务提供者
+     **/
+    private static final class StubServiceProvider implements ServiceProvider {
+        private final MethodInvoker invoker;
+
+        private StubServiceProvider() {
+            try {
+                invoker = MethodInvoker.of(1, SERVICE_NAME, new EchoServiceImpl(),
+                        EchoService.class.getMethod("echo", String.class, int.class));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void addService(RpcServiceConfig rpcServiceConfig) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object getService(String rpcServiceName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public RpcServiceConfig getServiceConfig(String rpcServiceName) {
+            return null;
+        }
+
+        @Override
+        public MethodInvoker getMethodInvoker(String rpcServiceName, String methodName, Class<?>[] paramTypes) {
+            return SERVICE_NAME.equals(rpcServiceName) && "echo".equals(methodName) && invoker.matches(paramTypes) ? invoker : null;
+        }
+
+        @Override
+        public MethodInvoker getMethodInvoker(String rpcServiceName, String methodName, String[] paramTypeNames) {
+            return SERVICE_NAME.equals(rpcServiceName) && "echo".equals(methodName) && invoker.matches(paramTypeNames) ? invoker : null;
+        }
+
+        @Override
+        public MethodInvoker getMethodInvoker(int methodId) {
+            return methodId == 1 ? invoker : null;
+        }
+
+        @Override
+        public Map<String, Integer> getMethodIds() {
+            return Collections.singletonMap(invoker.getMethodKey(), 1);
+        }
+
+        @Override
+        public Map<String, Integer> getServiceSerializers() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Map<String, Integer> getServiceCompressors() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void publishService(RpcServiceConfig rpcServiceConfig) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static RpcRequest request(Class<?>[] paramTypes, Object[] parameters) {
+        return RpcRequest.builder()
+                .interfaceName(EchoService.class.getName())
+                .methodName("echo")
+                .group("g1")
+                .version("v1")
+                .paramTypes(paramTypes)
+                .parameters(parameters).build();
+    }
+
+    private int encodedSize(byte messageType, Object data, ServiceTypeTable typeTable) {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            RpcEnvelopeCodec.encode(messageType, data, serializer, typeTable, buf);
+            return buf.readableBytes();
+        } finally {
+            buf.release();
+        }
+    }
+
+    private Object roundTrip(byte messageType, Object data, ServiceTypeTable typeTable, ServiceProvider serviceProvider) {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            RpcEnvelopeCodec.encode(messageType, data, serializer, typeTable, buf);
+            Object decoded = RpcEnvelopeCodec.decode(messageType, buf, serializer, typeTable, serviceProvider);
+            assertFalse(buf.isReadable());
+            return decoded;
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void requestResolvesParamTypesFromInvoker() {
+        RpcRequest rpcRequest = request(new Class<?>[]{String.class, int.class}, new Object[]{"hi", 3});
+        RpcRequest decoded = (RpcRequest) roundTrip(RpcConstants.REQUEST_TYPE, rpcRequest, null, serviceProvider);
+        assertEquals(EchoService.class.getName(), decoded.getInterfaceName());
+        assertEquals("echo", decoded.getMethodName());
+        assertEquals("g1", decoded.getGroup());
+        assertEquals("v1", decoded.getVersion());
+        assertArrayEquals(new Object[]{"hi", 3}, decoded.getParameters());
+        assertArrayEquals(serviceProvider.invoker.getParamTypes(), decoded.getParamTypes());
+        assertEquals(rpcRequest.getMethodKey(), decoded.getMethodKey());
+    }
+
+    @Test
+    public void unknownSignatureHasNoParamTypes() {
+        //签名不匹配的参数类型不会按名称加载，解码出的参数类型为null
+        RpcRequest mismatched = request(new Class<?>[]{String.class, long.class}, new Object[]{"hi", 3L});
+        assertNull(((RpcRequest) roundTrip(RpcConstants.REQUEST_TYPE, mismatched, null, serviceProvider)).getParamTypes());
+        //没有服务提供者时不匹配签名
+        RpcRequest matched = request(new Class<?>[]{String.class, int.class}, new Object[]{"hi", 3});
+        assertNull(((RpcRequest) roundTrip(RpcConstants.REQUEST_TYPE, matched, null, null)).getParamTypes());
+    }
+
+    @Test
+    public void requestWithNullFields() {
+        RpcRequest rpcRequest = RpcRequest.builder().methodName("echo").build();
+        RpcRequest decoded = (RpcRequest) roundTrip(RpcConstants.REQUEST_TYPE, rpcRequest, null, serviceProvider);
+        assertNull(decoded.getInterfaceName());
+        assertNull(decoded.getGroup());
+        assertNull(decoded.getParamTypes());
+        assertNull(decoded.getParameters());
+        assertEquals("echo", decoded.getMethodName());
+    }
+
+    @Test
+    public void compactRequestRoundTrip() {
+        for (int methodId : new int[]{0, 127, 128, 1 << 21, Integer.MAX_VALUE}) {
+            RpcCompactRequest decoded = (RpcCompactRequest) roundTrip(RpcConstants.COMPACT_REQUEST_TYPE,
+                    new RpcCompactRequest(methodId, new Object[]{"hi", 3}), null, null);
+            assertEquals(methodId, decoded.getMethodId());
+            assertArrayEquals(new Object[]{"hi", 3}, decoded.getParameters());
+        }
+    }
+
+    @Test
+    public void responseRoundTrip() {
+        RpcResponse<?> decoded = (RpcResponse<?>) roundTrip(RpcConstants.RESPONSE_TYPE,
+                new RpcResponse<>(200, "调用成功", "hi"), null, null);
+        assertEquals(200, decoded.getCode());
+        assertEquals("调用成功", decoded.getMessage());
+        assertEquals("hi", decoded.getData());
+
+        decoded = (RpcResponse<?>) roundTrip(RpcConstants.RESPONSE_TYPE, new RpcResponse<>(), null, null);
+        assertNull(decoded.getCode());
+        assertNull(decoded.getMessage());
+        assertNull(decoded.getData());
+    }
+
+    /**
+     * 编号表中的服务类型
+     **/
+    public static class Payload {
+        private String name;
+        private long value;
+    }
+
+    public interface PayloadService {
+        Payload echo(Payload payload);
+    }
+
+    @Test
+    public void responseWithServiceTypeTable() {
+        ServiceTypeRegistry serviceTypeRegistry = SingletonFactory.getInstance(ServiceTypeRegistry.class);
+        serviceTypeRegistry.register(PayloadService.class);
+        assertTrue(serviceTypeRegistry.contains(Payload.class));
+        assertEquals(Payload.class, serviceTypeRegistry.getType(Payload.class.getName()));
+        //按名称创建的编号表与服务端的编号表共用同一实例
+        ServiceTypeTable typeTable = serviceTypeRegistry.getTable();
+        assertSame(typeTable, ServiceTypeTable.of(typeTable.getNames()));
+
+        Payload payload = new Payload();
+        payload.name = "p";
+        payload.value = 7;
+        //编号表中的类型只写编号，不再写出类名
+        assertTrue(encodedSize(RpcConstants.RESPONSE_TYPE, RpcResponse.success(payload), typeTable)
+                < encodedSize(RpcConstants.RESPONSE_TYPE, RpcResponse.success(payload), ServiceTypeTable.EMPTY) - Payload.class.getName().length() / 2);
+        RpcResponse<?> decoded = (RpcResponse<?>) roundTrip(RpcConstants.RESPONSE_TYPE, RpcResponse.success(payload), typeTable, null);
+        Payload back = (Payload) decoded.getData();
+        assertEquals("p", back.name);
+        assertEquals(7, back.value);
+    }
+}
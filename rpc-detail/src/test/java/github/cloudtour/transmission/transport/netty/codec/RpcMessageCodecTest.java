@@ -0,0 +1,88 @@
+package github.cloudtour.transmission.transport.netty.codec;
+
+import github.cloudtour.enums.CompressTypeEnum;
+import github.cloudtour.enums.SerializationTypeEnum;
+import github.cloudtour.transmission.constants.RpcConstants;
+import github.cloudtour.transmission.dto.RpcMessage;
+import github.cloudtour.transmission.dto.RpcResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 消息编解码测试：压缩策略跳过压缩时头部的未压缩标记，使用默认配置
+ * @author cloudtour
+ * @version 1.0
+ */
+@RunWith(JUnitPlatform.class)
+public class RpcMessageCodecTest {
+
+    /**
+     * 头部中压缩类型的下标：魔数4 + 版本1 + 长度4 + 消息类型1 + 编码1
+     */
+    private static final int COMPRESS_INDEX = 11;
+
+    private static RpcMessage response(int requestId, String data) {
+        return RpcMessage.builder()
+                .messageType(RpcConstants.RESPONSE_TYPE)
+                .codec(SerializationTypeEnum.KYRO.getCode())
+                .compress(CompressTypeEnum.GZIP.getCode())
+                .requestId(requestId)
+                .data(RpcResponse.success(data)).build();
+    }
+
+    private static ByteBuf encode(RpcMessage rpcMessage) {
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcMessageEncoder());
+        assertTrue(channel.writeOutbound(rpcMessage));
+        ByteBuf frame = channel.readOutbound();
+        channel.finishAndReleaseAll();
+        return frame;
+    }
+
+    private static RpcMessage decode(ByteBuf frame) {
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcMessageDecoder());
+        assertTrue(channel.writeInbound(frame));
+        RpcMessage rpcMessage = channel.readInbound();
+        channel.finishAndReleaseAll();
+        return rpcMessage;
+    }
+
+    @Test
+    public void smallBodyKeepsRequestedCompressWithFlag() {
+        ByteBuf frame = encode(response(1, "small"));
+        assertEquals((byte) (CompressTypeEnum.GZIP.getCode() | RpcConstants.UNCOMPRESSED_FLAG), frame.getByte(COMPRESS_INDEX));
+        RpcMessage decoded = decode(frame);
+        assertEquals(CompressTypeEnum.GZIP.getCode(), decoded.getCompress());
+        assertEquals(1, decoded.getRequestId());
+        assertEquals("small", ((RpcResponse<?>) decoded.getData()).getData());
+    }
+
+    @Test
+    public void largeBodyIsCompressedWithoutFlag() {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            data.append("compressible ");
+        }
+        ByteBuf frame = encode(response(2, data.toString()));
+        assertEquals(CompressTypeEnum.GZIP.getCode(), frame.getByte(COMPRESS_INDEX));
+        assertTrue(frame.readableBytes() < data.length());
+        RpcMessage decoded = decode(frame);
+        assertEquals(CompressTypeEnum.GZIP.getCode(), decoded.getCompress());
+        assertEquals(data.toString(), ((RpcResponse<?>) decoded.getData()).getData());
+    }
+
+    @Test
+    public void noneIsWrittenWithoutFlag() {
+        RpcMessage rpcMessage = response(3, "none");
+        rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
+        ByteBuf frame = encode(rpcMessage);
+        assertEquals(CompressTypeEnum.NONE.getCode(), frame.getByte(COMPRESS_INDEX));
+        RpcMessage decoded = decode(frame);
+        assertEquals(CompressTypeEnum.NONE.getCode(), decoded.getCompress());
+        assertEquals("none", ((RpcResponse<?>) decoded.getData()).getData());
+    }
+}